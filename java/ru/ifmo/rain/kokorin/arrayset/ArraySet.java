@@ -1,8 +1,9 @@
 package ru.ifmo.rain.kokorin.arrayset;
 
-import java.util.AbstractList;
 import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -11,61 +12,389 @@ import java.util.List;
 import java.util.NavigableSet;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.RandomAccess;
 import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
+    /*
+    Subsets and descending sets are views, that share sortedData of the set they were taken from.
+    View keeps only borders [from, to) in sortedData and direction, so views of views have the same depth
+     */
     private final List<T> sortedData;
+    //sortedData is sorted by comparator, reversedComparator is shared by views to avoid allocations
     private final Comparator<? super T> comparator;
+    private final Comparator<? super T> reversedComparator;
+    private final int from;
+    private final int to;
+    private final boolean descending;
+    //Built over the whole sortedData and shared by views, null for Layout.SORTED
+    private final EytzingerIndex<T> index;
 
-    private ArraySet(List<T> list, Comparator<? super T> comp) {
+    public enum Layout {
+        //Binary search over sorted data
+        SORTED,
+        //Additional cache-friendly copy of data for lookups, twice more memory
+        EYTZINGER
+    }
+
+    private ArraySet(ArraySet<T> other, int from, int to, boolean descending) {
+        sortedData = other.sortedData;
+        comparator = other.comparator;
+        reversedComparator = other.reversedComparator;
+        index = other.index;
+        this.from = from;
+        this.to = to;
+        this.descending = descending;
+    }
+
+    private ArraySet(List<T> list, Comparator<? super T> comp, EytzingerIndex<T> index) {
         sortedData = list;
         comparator = comp;
+        reversedComparator = Collections.reverseOrder(comp);
+        this.index = index;
+        from = 0;
+        to = list.size();
+        descending = false;
+    }
+
+    //Private, so that a List argument cannot bind to it instead of the public constructor, which sorts
+    private ArraySet(List<T> list, Comparator<? super T> comp) {
+        this(list, comp, (EytzingerIndex<T>) null);
+    }
+
+    //list should be sorted according to comp without duplicates, it is not checked and not copied
+    static <T> ArraySet<T> trusted(List<T> list, Comparator<? super T> comp) {
+        return new ArraySet<>(list, comp);
     }
 
     public ArraySet() {
         this(Collections.emptyList(), null);
     }
 
-    public ArraySet(Collection<? extends T> collection, Comparator<? super T> comp) {
-        comparator = comp;
-        //If comp is null, the natural ordering of the elements will be used
-        //(https://docs.oracle.com/javase/9/docs/api/java/util/TreeSet.html#TreeSet-java.util.Comparator-)
-        TreeSet<T> set = new TreeSet<>(comp);
+    public ArraySet(Collection<? extends T> collection, Comparator<? super T> comp, Layout layout) {
+        this(sortedList(collection, comp), comp, layout);
+    }
+
+    private ArraySet(List<T> list, Comparator<? super T> comp, Layout layout) {
+        //throws NullPointerException, if layout is null
+        this(list, comp, Objects.requireNonNull(layout) == Layout.EYTZINGER ? new EytzingerIndex<>(list, comp) : null);
+    }
+
+    private static <T> List<T> sortedList(Collection<? extends T> collection, Comparator<? super T> comp) {
         //throws NullPointerException, if collection is null
-        set.addAll(Objects.requireNonNull(collection));
-        sortedData = new ArrayList<>(set);
+        T[] data = (T[]) Objects.requireNonNull(collection).toArray();
+        //Input usually comes sorted, in this case checking it is cheaper than sorting
+        if (!isSorted(data, comp)) {
+            //If comp is null, the natural ordering of the elements will be used
+            //Sort is stable, so the first of equal elements is kept, as TreeSet does
+            Arrays.sort(data, comp);
+        }
+        return removeDuplicates(data, comp);
+    }
+
+    public ArraySet(Collection<? extends T> collection, Comparator<? super T> comp) {
+        this(collection, comp, Layout.SORTED);
     }
 
     public ArraySet(Collection<? extends T> collection) {
         this(collection, null);
     }
 
+    /*
+    Caller guarantees, that collection is sorted according to comp (duplicates are allowed),
+    ordering is not checked
+     */
+    public static <T> ArraySet<T> ofSorted(Collection<? extends T> collection, Comparator<? super T> comp) {
+        //throws NullPointerException, if collection is null
+        T[] data = (T[]) Objects.requireNonNull(collection).toArray();
+        return trusted(removeDuplicates(data, comp), comp);
+    }
+
+    public static <T> ArraySet<T> ofSorted(Collection<? extends T> collection) {
+        return ofSorted(collection, null);
+    }
+
+    static <T> int compare(T first, T second, Comparator<? super T> comp) {
+        if (comp == null) {
+            //throws ClassCastException, if elements are not Comparable, as TreeSet does
+            return ((Comparable<? super T>) first).compareTo(second);
+        }
+        return comp.compare(first, second);
+    }
+
+    private static <T> boolean isSorted(T[] data, Comparator<? super T> comp) {
+        for (int i = 1; i < data.length; i++) {
+            if (compare(data[i - 1], data[i], comp) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Single pass over sorted data, distinct elements are moved to the beginning of the array
+    private static <T> List<T> removeDuplicates(T[] data, Comparator<? super T> comp) {
+        if (data.length == 1) {
+            //Single element is compared with itself, as TreeSet does, so null or non-Comparable element throws
+            compare(data[0], data[0], comp);
+        }
+        int size = Math.min(data.length, 1);
+        for (int i = 1; i < data.length; i++) {
+            if (compare(data[size - 1], data[i], comp) != 0) {
+                data[size++] = data[i];
+            }
+        }
+        if (size < data.length) {
+            data = Arrays.copyOf(data, size);
+        }
+        return Arrays.asList(data);
+    }
+
     public ArraySet(ArraySet<T> other) {
         //ArraySet is immutable, so we can use the same data
-        sortedData = other.sortedData;
-        comparator = other.comparator;
+        this(other, other.from, other.to, other.descending);
+    }
+
+    /*
+    Set operations merge sorted data of both sets in one pass, O(n + m).
+    If one set is much larger, runs of its elements, which are absent in the other set,
+    are skipped with exponential search, so the cost is O(m log(n / m)) for m << n.
+     */
+    private static final int GALLOP_RATIO = 8;
+
+    public static <T> ArraySet<T> union(ArraySet<T> first, ArraySet<T> second) {
+        return merge(first, second, true, true, true);
+    }
+
+    public static <T> ArraySet<T> intersection(ArraySet<T> first, ArraySet<T> second) {
+        return merge(first, second, false, false, true);
+    }
+
+    public static <T> ArraySet<T> difference(ArraySet<T> first, ArraySet<T> second) {
+        return merge(first, second, true, false, false);
+    }
+
+    public static <T> ArraySet<T> symmetricDifference(ArraySet<T> first, ArraySet<T> second) {
+        return merge(first, second, true, true, false);
+    }
+
+    private static <T> ArraySet<T> merge(ArraySet<T> first, ArraySet<T> second,
+                                         boolean keepOnlyFirst, boolean keepOnlySecond, boolean keepBoth) {
+        //throws NullPointerException, if one of sets is null
+        Comparator<? super T> comp = first.comparator();
+        if (!Objects.equals(comp, second.comparator())) {
+            throw new IllegalArgumentException("Cannot merge ArraySets with different comparators");
+        }
+        int n = first.size();
+        int m = second.size();
+        boolean gallop = Math.max(n, m) / GALLOP_RATIO >= Math.min(n, m);
+
+        int capacity = (keepOnlyFirst ? n : 0) + (keepOnlySecond ? m : 0);
+        List<T> result = new ArrayList<>(capacity == 0 ? Math.min(n, m) : capacity);
+        int i = 0;
+        int j = 0;
+        while (i < n && j < m) {
+            int cmp = compare(first.get(i), second.get(j), comp);
+            if (cmp < 0) {
+                int end = gallop ? first.lowerBound(i + 1, n, second.get(j)) : i + 1;
+                if (keepOnlyFirst) {
+                    first.copyTo(result, i, end);
+                }
+                i = end;
+            } else if (cmp > 0) {
+                int end = gallop ? second.lowerBound(j + 1, m, first.get(i)) : j + 1;
+                if (keepOnlySecond) {
+                    second.copyTo(result, j, end);
+                }
+                j = end;
+            } else {
+                //Element of the first set is kept, as addAll of TreeSet does
+                if (keepBoth) {
+                    result.add(first.get(i));
+                }
+                i++;
+                j++;
+            }
+        }
+        if (keepOnlyFirst) {
+            first.copyTo(result, i, n);
+        }
+        if (keepOnlySecond) {
+            second.copyTo(result, j, m);
+        }
+        return trusted(result, comp);
+    }
+
+    private void copyTo(List<T> result, int begin, int end) {
+        for (int i = begin; i < end; i++) {
+            result.add(get(i));
+        }
+    }
+
+    //Exponential search of the first position in [begin, end) of this set, where element is not less than key
+    private int lowerBound(int begin, int end, T key) {
+        Comparator<? super T> comp = comparator();
+        int bound = 1;
+        while (bound <= end - begin && compare(get(begin + bound - 1), key, comp) < 0) {
+            bound *= 2;
+        }
+        //get(begin + bound / 2 - 1) is less than key, get(begin + bound - 1) is not (or is out of range)
+        int left = begin + bound / 2;
+        int right = begin + Math.min(bound - 1, end - begin);
+        while (left < right) {
+            int middle = (left + right) >>> 1;
+            if (compare(get(middle), key, comp) < 0) {
+                left = middle + 1;
+            } else {
+                right = middle;
+            }
+        }
+        return left;
+    }
+
+    /*
+    Batch lookups take probes, sorted by comparator() of this set, and answer all of them in one walk:
+    search for every probe gallops forward from the answer for the previous one,
+    so k probes cost O(k log(n / k)) instead of O(k log n)
+     */
+    private static final int PARALLEL_BATCH = 1 << 12;
+
+    //Bit i is set, if the set contains sortedProbes.get(i)
+    public BitSet containsEach(List<? extends T> sortedProbes) {
+        return containsEach(sortedProbes, null);
+    }
+
+    //Element i is floor(sortedProbes.get(i))
+    public List<T> floorEach(List<? extends T> sortedProbes) {
+        return floorEach(sortedProbes, null);
+    }
+
+    //Parts of probes are processed by tasks of pool, if pool is not null
+    public BitSet containsEach(List<? extends T> sortedProbes, ForkJoinPool pool) {
+        List<? extends T> probes = randomAccess(sortedProbes);
+        long[] found = new long[(probes.size() + Long.SIZE - 1) / Long.SIZE];
+        batch(new BatchTask(probes, 0, probes.size(), found, null), pool);
+        return BitSet.valueOf(found);
+    }
+
+    public List<T> floorEach(List<? extends T> sortedProbes, ForkJoinPool pool) {
+        List<? extends T> probes = randomAccess(sortedProbes);
+        T[] floors = (T[]) new Object[probes.size()];
+        batch(new BatchTask(probes, 0, probes.size(), null, floors), pool);
+        return Arrays.asList(floors);
+    }
+
+    private static <E> List<E> randomAccess(List<E> list) {
+        //throws NullPointerException, if list is null
+        return list instanceof RandomAccess ? list : new ArrayList<>(list);
+    }
+
+    private void batch(BatchTask task, ForkJoinPool pool) {
+        if (pool == null) {
+            task.walk();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    private class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 4180629563497125383L;
+
+        private final List<? extends T> probes;
+        private final int begin;
+        private final int end;
+        //Exactly one of found and floors is not null
+        private final long[] found;
+        private final T[] floors;
+
+        BatchTask(List<? extends T> probes, int begin, int end, long[] found, T[] floors) {
+            this.probes = probes;
+            this.begin = begin;
+            this.end = end;
+            this.found = found;
+            this.floors = floors;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - begin <= PARALLEL_BATCH) {
+                walk();
+                return;
+            }
+            //Parts are aligned to words of found, so tasks never write to the same word
+            int middle = (begin + (end - begin) / 2) & -Long.SIZE;
+            invokeAll(new BatchTask(probes, begin, middle, found, floors),
+                    new BatchTask(probes, middle, end, found, floors));
+        }
+
+        void walk() {
+            Comparator<? super T> comp = comparator();
+            int position = 0;
+            for (int i = begin; i < end; i++) {
+                T probe = probes.get(i);
+                if (i > 0 && compare(probes.get(i - 1), probe, comp) > 0) {
+                    throw new IllegalArgumentException("Probes are not sorted by the comparator of the set");
+                }
+                position = lowerBound(position, size(), probe);
+                //ForkJoinTask.get() hides get() of the set here
+                boolean equal = position < size() && compare(ArraySet.this.get(position), probe, comp) == 0;
+                if (found != null && equal) {
+                    found[i / Long.SIZE] |= 1L << i;
+                }
+                if (floors != null) {
+                    floors[i] = equal ? ArraySet.this.get(position)
+                            : position > 0 ? ArraySet.this.get(position - 1) : null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        //throws NullPointerException, if c is null
+        if (!(c instanceof SortedSet) || !Objects.equals(((SortedSet<?>) c).comparator(), comparator())) {
+            return super.containsAll(c);
+        }
+        //Elements of c come in the order of this set, so they can be found in one walk
+        Comparator<? super T> comp = comparator();
+        int position = 0;
+        for (Object o : c) {
+            T element = (T) o;
+            position = lowerBound(position, size(), element);
+            if (position == size() || compare(get(position), element, comp) != 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private static final String SET_IS_EMPTY_MESSAGE = "ArraySet is empty, cannot get ";
 
+    //Element with the given index in this view, in the order of this view
+    private T get(int index) {
+        return descending ? sortedData.get(to - 1 - index) : sortedData.get(from + index);
+    }
+
     public T first() {
-        if (!sortedData.isEmpty()) {
-            return sortedData.get(0);
+        if (from < to) {
+            return get(0);
         }
         throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "first element");
     }
 
     public T last() {
-        if (!sortedData.isEmpty()) {
-            return sortedData.get(sortedData.size() - 1);
+        if (from < to) {
+            return get(size() - 1);
         }
         throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "last element");
     }
 
     public int size() {
-        return sortedData.size();
+        return to - from;
     }
 
     private static final String unsupportedOperationMessage = "ArraySet is immutable, cannot perform ";
@@ -85,16 +414,108 @@ public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
         if the type of the specified element is incompatible with this arrayset
         ClassCastException will be thrown if the cast (T) o is incorrect
         */
-        return Collections.binarySearch(sortedData, (T) o, comparator) >= 0;
+        return binarySearch((T) o) >= 0;
+    }
+
+    //Walks over [from, to) of sortedData, one object per iteration
+    private class Itr implements Iterator<T> {
+        private final boolean backwards;
+        private int cursor;
+
+        Itr(boolean backwards) {
+            this.backwards = backwards;
+            cursor = backwards ? to - 1 : from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return from <= cursor && cursor < to;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T element = sortedData.get(cursor);
+            cursor += backwards ? -1 : 1;
+            return element;
+        }
     }
 
     @Override
     public Iterator<T> iterator() {
-        return Collections.unmodifiableList(sortedData).iterator();
+        return new Itr(descending);
+    }
+
+    //Splits exactly in half by index, so parallel streams get balanced parts
+    private class ArraySetSpliterator implements Spliterator<T> {
+        private int cursor;
+        private final int end;
+
+        //Indices are in the order of this view, as in get(int)
+        ArraySetSpliterator(int begin, int end) {
+            cursor = begin;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            Objects.requireNonNull(action);
+            if (cursor < end) {
+                action.accept(get(cursor++));
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            Objects.requireNonNull(action);
+            while (cursor < end) {
+                action.accept(get(cursor++));
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int middle = (cursor + end) >>> 1;
+            if (middle <= cursor) {
+                return null;
+            }
+            Spliterator<T> prefix = new ArraySetSpliterator(cursor, middle);
+            cursor = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - cursor;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | DISTINCT | SIZED | SUBSIZED | IMMUTABLE;
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            //null for natural ordering, as Spliterator requires
+            return comparator();
+        }
     }
 
+    @Override
+    public Spliterator<T> spliterator() {
+        return new ArraySetSpliterator(0, size());
+    }
+
+    /*
+    Searches below work in ascending order of sortedData and return absolute indices in it,
+    descending views swap lower with higher and floor with ceiling
+     */
     private boolean valid(int index) {
-        return 0 <= index && index < size();
+        return from <= index && index < to;
     }
 
     private T getAnswer(T element, int addIfFound, int addIfNotFound) {
@@ -106,8 +527,34 @@ public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
         return null;
     }
 
+    //Same result as Collections.binarySearch over [from, to) of sortedData, but indices are absolute
+    private int binarySearch(T element) {
+        if (index != null) {
+            //index covers the whole sortedData, this view is only a part of it
+            int position = Math.min(Math.max(index.lowerBound(element), from), to);
+            if (valid(position) && compare(sortedData.get(position), element, comparator) == 0) {
+                return position;
+            }
+            return -position - 1;
+        }
+        int left = from;
+        int right = to - 1;
+        while (left <= right) {
+            int middle = (left + right) >>> 1;
+            int cmp = compare(sortedData.get(middle), element, comparator);
+            if (cmp < 0) {
+                left = middle + 1;
+            } else if (cmp > 0) {
+                right = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -left - 1;
+    }
+
     private int searchForPosition(T element, int addIfFound, int addIfNotFound) {
-        int index = Collections.binarySearch(sortedData, element, comparator);
+        int index = binarySearch(element);
         if (index >= 0) {
             //found
             return index + addIfFound;
@@ -123,59 +570,66 @@ public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
 
     @Override
     public T lower(T element) {
-        return getAnswer(element, -1, -1);
+        return descending ? getAnswer(element, 1, 0) : getAnswer(element, -1, -1);
     }
 
     @Override
     public T floor(T element) {
-        return getAnswer(element, 0, -1);
+        return descending ? getAnswer(element, 0, 0) : getAnswer(element, 0, -1);
     }
 
     @Override
     public T ceiling(T element) {
-        return getAnswer(element, 0, 0);
+        return descending ? getAnswer(element, 0, -1) : getAnswer(element, 0, 0);
     }
 
     @Override
     public T higher(T element) {
-        return getAnswer(element, 1, 0);
+        return descending ? getAnswer(element, -1, -1) : getAnswer(element, 1, 0);
     }
 
-    @Override
-    public NavigableSet<T> subSet(T fromElement, boolean fromInclusive, T toElement, boolean toInclusive) {
-        int addIfFound = fromInclusive ? 0 : 1;
-        int addIfNotFound = 0;
-        int leftBorder = searchForPosition(fromElement, addIfFound, addIfNotFound);
+    //End of the ascending range of elements, that are less than (or equal to) element
+    private int headBorder(T element, boolean inclusive) {
+        return searchForPosition(element, inclusive ? 0 : -1, -1) + 1;
+    }
 
-        addIfFound = toInclusive ? 0 : -1;
-        addIfNotFound = -1;
-        int rightBorder = searchForPosition(toElement, addIfFound, addIfNotFound) + 1;
+    //Beginning of the ascending range of elements, that are greater than (or equal to) element
+    private int tailBorder(T element, boolean inclusive) {
+        return searchForPosition(element, inclusive ? 0 : 1, 0);
+    }
+
+    private ArraySet<T> view(int leftBorder, int rightBorder) {
+        //Empty view still keeps comparator and direction of this set
+        return new ArraySet<>(this, leftBorder, Math.max(leftBorder, rightBorder), descending);
+    }
 
-        if (leftBorder - rightBorder >= 0) {
-            return Collections.emptyNavigableSet();
+    @Override
+    public NavigableSet<T> subSet(T fromElement, boolean fromInclusive, T toElement, boolean toInclusive) {
+        if (descending) {
+            return view(tailBorder(toElement, toInclusive), headBorder(fromElement, fromInclusive));
         }
-        return new ArraySet<>(sortedData.subList(leftBorder, rightBorder), comparator);
+        return view(tailBorder(fromElement, fromInclusive), headBorder(toElement, toInclusive));
     }
 
     @Override
     public NavigableSet<T> headSet(T toElement, boolean inclusive) {
-        if (sortedData.isEmpty()) {
-            return Collections.emptyNavigableSet();
+        if (descending) {
+            return view(tailBorder(toElement, inclusive), to);
         }
-        return subSet(first(), true, toElement, inclusive);
+        return view(from, headBorder(toElement, inclusive));
     }
 
     @Override
     public NavigableSet<T> tailSet(T fromElement, boolean inclusive) {
-        if (sortedData.isEmpty()) {
-            return Collections.emptyNavigableSet();
+        if (descending) {
+            return view(from, headBorder(fromElement, inclusive));
         }
-        return subSet(fromElement, inclusive, last(), true);
+        return view(tailBorder(fromElement, inclusive), to);
     }
 
     @Override
     public Comparator<? super T> comparator() {
-        return comparator;
+        return descending ? reversedComparator : comparator;
     }
 
     @Override
@@ -193,44 +647,14 @@ public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
         return headSet(toElement, false);
     }
 
-    private class ReversedList<E> extends AbstractList<E> {
-        private final boolean reversed;
-        private final List<E> data;
-
-        ReversedList(List<E> other) {
-            if (other instanceof ReversedList) {
-                ReversedList<E> tmp = (ReversedList<E>)other;
-                reversed = !tmp.reversed;
-                data = tmp.data;
-            } else {
-                reversed = true;
-                data = other;
-            }
-        }
-
-        @Override
-        public int size() {
-            return data.size();
-        }
-
-        @Override
-        public E get(int index) {
-            if (!reversed) {
-                return data.get(index);
-            }
-            return data.get(size() - 1 - index);
-        }
-    }
-
     @Override
     public NavigableSet<T> descendingSet() {
-        ReversedList<T> reversed = new ReversedList<>(sortedData);
-        return new ArraySet<>(reversed, Collections.reverseOrder(comparator));
+        return new ArraySet<>(this, from, to, !descending);
     }
 
     @Override
     public Iterator<T> descendingIterator() {
-        return descendingSet().iterator();
+        return new Itr(!descending);
     }
 
     @Override
@@ -0,0 +1,226 @@
+package ru.ifmo.rain.kokorin.arrayset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.SortedSet;
+import java.util.function.Function;
+
+/*
+Binary format of ArraySet for keys of some common types.
+File format: MAGIC (int), VERSION (int), type of keys (int), number of keys (int), then
+for fixed-size keys: keys in strictly ascending order,
+for variable-size keys: number of keys + 1 offsets (int each) of keys in the data part, then the data part.
+All values are big-endian.
+
+Order is checked by write(), so read() and map() trust it and neither sort nor check the keys.
+ */
+public final class ArraySetCodec<T> {
+    private static final int MAGIC = 0x41534554;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    //There is no natural ordering of byte arrays, so they are compared as unsigned strings of bytes
+    public static final Comparator<byte[]> BYTES_ORDER = Arrays::compareUnsigned;
+
+    public static final ArraySetCodec<Integer> INTS = new ArraySetCodec<>(1, Integer.BYTES, null,
+            value -> ByteBuffer.allocate(Integer.BYTES).putInt(value).array(),
+            (buffer, offset, length) -> buffer.getInt(offset));
+
+    public static final ArraySetCodec<Long> LONGS = new ArraySetCodec<>(2, Long.BYTES, null,
+            value -> ByteBuffer.allocate(Long.BYTES).putLong(value).array(),
+            (buffer, offset, length) -> buffer.getLong(offset));
+
+    //Strings are encoded in the same lossless way as in CompactStringArraySet
+    public static final ArraySetCodec<String> STRINGS = new ArraySetCodec<>(3, 0, null,
+            CompactStringArraySet::encode,
+            (buffer, offset, length) -> CompactStringArraySet.decode(bytes(buffer, offset, length), 0, length));
+
+    public static final ArraySetCodec<byte[]> BYTES = new ArraySetCodec<>(4, 0, BYTES_ORDER,
+            value -> value,
+            ArraySetCodec::bytes);
+
+    private interface Decoder<T> {
+        T decode(ByteBuffer buffer, int offset, int length);
+    }
+
+    private final int type;
+    //Size of every key in bytes, 0 for keys of variable size
+    private final int width;
+    private final Comparator<? super T> comparator;
+    private final Function<T, byte[]> encoder;
+    private final Decoder<T> decoder;
+
+    private ArraySetCodec(int type, int width, Comparator<? super T> comparator,
+                          Function<T, byte[]> encoder, Decoder<T> decoder) {
+        this.type = type;
+        this.width = width;
+        this.comparator = comparator;
+        this.encoder = encoder;
+        this.decoder = decoder;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int offset, int length) {
+        byte[] result = new byte[length];
+        //Absolute bulk get appeared only in Java 13, so a duplicate is positioned instead
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(result);
+        return result;
+    }
+
+    //Comparator of sets, returned by read() and map()
+    public Comparator<? super T> comparator() {
+        return comparator;
+    }
+
+    //Keys of the set should be in strictly ascending order according to comparator() of the codec
+    public void write(SortedSet<T> set, Path file) throws IOException {
+        int count = set.size();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(type).putInt(count);
+            writeFully(channel, buffer);
+            //Offsets are known only after the keys are written, so the space for them is skipped for now
+            long dataStart = HEADER_SIZE + (width == 0 ? (long) (count + 1) * Integer.BYTES : 0);
+            channel.position(dataStart);
+
+            int[] offsets = width == 0 ? new int[count + 1] : null;
+            long size = 0;
+            int written = 0;
+            T previous = null;
+            for (T key : set) {
+                if (written == count) {
+                    throw new IllegalArgumentException("Set has more keys, than its size");
+                }
+                //throws NullPointerException, if key is null
+                byte[] bytes = encoder.apply(key);
+                if (written > 0 && ArraySet.compare(previous, key, comparator) >= 0) {
+                    throw new IllegalArgumentException("Keys of the set are not in ascending order");
+                }
+                if (buffer.remaining() < bytes.length) {
+                    writeFully(channel, buffer);
+                }
+                if (bytes.length > buffer.capacity()) {
+                    writeFully(channel, ByteBuffer.wrap(bytes).position(bytes.length));
+                } else {
+                    buffer.put(bytes);
+                }
+                size += bytes.length;
+                if (offsets != null) {
+                    if (size > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("Keys of the set take more than 2 GB");
+                    }
+                    offsets[written + 1] = (int) size;
+                }
+                previous = key;
+                written++;
+            }
+            if (written != count) {
+                throw new IllegalArgumentException("Set has less keys, than its size");
+            }
+            writeFully(channel, buffer);
+
+            if (offsets != null) {
+                channel.position(HEADER_SIZE);
+                for (int offset : offsets) {
+                    if (!buffer.hasRemaining()) {
+                        writeFully(channel, buffer);
+                    }
+                    buffer.putInt(offset);
+                }
+                writeFully(channel, buffer);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    //Keys of the mapped file, decoded on access
+    private class MappedList extends AbstractList<T> implements RandomAccess {
+        private final ByteBuffer buffer;
+        private final int count;
+        private final int dataStart;
+
+        MappedList(ByteBuffer buffer, int count) {
+            this.buffer = buffer;
+            this.count = count;
+            dataStart = HEADER_SIZE + (width == 0 ? (count + 1) * Integer.BYTES : 0);
+        }
+
+        @Override
+        public T get(int index) {
+            //Same as ArrayList: IndexOutOfBoundsException for a wrong index
+            Objects.checkIndex(index, count);
+            if (width != 0) {
+                return decoder.decode(buffer, dataStart + index * width, width);
+            }
+            int offset = buffer.getInt(HEADER_SIZE + index * Integer.BYTES);
+            int next = buffer.getInt(HEADER_SIZE + (index + 1) * Integer.BYTES);
+            return decoder.decode(buffer, dataStart + offset, next - offset);
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+
+    private MappedList open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException("Not an ArraySet file: " + file);
+            }
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("ArraySet file is larger than 2 GB: " + file);
+            }
+            //Mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not an ArraySet file: " + file);
+            }
+            if (buffer.getInt(8) != type) {
+                throw new IOException("ArraySet file has keys of another type: " + file);
+            }
+            int count = buffer.getInt(12);
+            long dataStart = HEADER_SIZE + (width == 0 ? (count + 1L) * Integer.BYTES : 0);
+            long dataSize = width == 0 ? (count < 0 || dataStart > fileSize ? -1 : buffer.getInt((int) dataStart - 4))
+                    : (long) count * width;
+            if (count < 0 || dataSize < 0 || dataStart + dataSize > fileSize) {
+                throw new IOException("Truncated ArraySet file: " + file);
+            }
+            return new MappedList(buffer, count);
+        }
+    }
+
+    //Decodes all keys at once, file is not needed after the call
+    public ArraySet<T> read(Path file) throws IOException {
+        MappedList keys = open(file);
+        Object[] data = new Object[keys.size()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = keys.get(i);
+        }
+        return ArraySet.trusted(Arrays.asList((T[]) data), comparator);
+    }
+
+    //Keys are decoded on every access, so the set is ready right after the header is checked
+    public ArraySet<T> map(Path file) throws IOException {
+        return ArraySet.trusted(open(file), comparator);
+    }
+}
@@ -0,0 +1,507 @@
+package ru.ifmo.rain.kokorin.arrayset;
+
+import java.io.ByteArrayOutputStream;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.SortedSet;
+import java.util.function.Predicate;
+
+/*
+Sorted set of strings, stored front-coded in one byte array.
+Strings are split into blocks of blockSize entries. Every entry is
+(length of prefix, shared with the previous entry; length of suffix; suffix), lengths are varints,
+first entry of a block shares nothing, so blocks can be decoded independently.
+Lookup binary-searches the first entries of the blocks and then scans one block.
+
+Every char is encoded by itself in 1-3 bytes, the same way as UTF-8 encodes code points,
+so unsigned byte order of encoded strings is the same as String.compareTo order of strings,
+and natural ordering compares bytes without decoding.
+ */
+public class CompactStringArraySet extends AbstractSet<String> implements NavigableSet<String> {
+    private static final int DEFAULT_BLOCK_SIZE = 32;
+
+    //Shared by all subsets of one set, only [from, to) belongs to this set
+    private final byte[] data;
+    //Offset of the first entry of every block in data
+    private final int[] blockOffsets;
+    private final int blockSize;
+    //Length of the longest encoded string, enough for a decoding buffer
+    private final int maxLength;
+    //Number of all strings, shared by subsets
+    private final int count;
+    private final Comparator<? super String> comparator;
+    private final int from;
+    private final int to;
+
+    private CompactStringArraySet(CompactStringArraySet other, int from, int to) {
+        data = other.data;
+        blockOffsets = other.blockOffsets;
+        blockSize = other.blockSize;
+        maxLength = other.maxLength;
+        count = other.count;
+        comparator = other.comparator;
+        this.from = from;
+        this.to = to;
+    }
+
+    public CompactStringArraySet(Collection<String> collection, Comparator<? super String> comp, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size should be positive");
+        }
+        //Sorting and removing duplicates is done by ArraySet, it also throws NullPointerException for null collection
+        ArraySet<String> sorted = new ArraySet<>(collection, comp);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        blockOffsets = new int[(sorted.size() + blockSize - 1) / blockSize];
+        byte[] previous = new byte[0];
+        int longest = 0;
+        int index = 0;
+        for (String element : sorted) {
+            //Strings are encoded, so null cannot be stored even with a comparator, that accepts it
+            byte[] current = encode(Objects.requireNonNull(element));
+            int shared = 0;
+            if (index % blockSize == 0) {
+                blockOffsets[index / blockSize] = out.size();
+            } else {
+                int limit = Math.min(previous.length, current.length);
+                while (shared < limit && previous[shared] == current[shared]) {
+                    shared++;
+                }
+            }
+            writeVarInt(out, shared);
+            writeVarInt(out, current.length - shared);
+            out.write(current, shared, current.length - shared);
+            longest = Math.max(longest, current.length);
+            previous = current;
+            index++;
+        }
+        data = out.toByteArray();
+        this.blockSize = blockSize;
+        maxLength = longest;
+        count = index;
+        comparator = comp;
+        from = 0;
+        to = index;
+    }
+
+    public CompactStringArraySet(Collection<String> collection, Comparator<? super String> comp) {
+        this(collection, comp, DEFAULT_BLOCK_SIZE);
+    }
+
+    public CompactStringArraySet(Collection<String> collection) {
+        this(collection, null);
+    }
+
+    public CompactStringArraySet() {
+        this(Collections.emptyList());
+    }
+
+    //Also used by ArraySetCodec to store strings
+    static byte[] encode(String s) {
+        byte[] result = new byte[s.length() * 3];
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                result[length++] = (byte) c;
+            } else if (c < 0x800) {
+                result[length++] = (byte) (0xC0 | c >> 6);
+                result[length++] = (byte) (0x80 | c & 0x3F);
+            } else {
+                //Surrogates are encoded one by one, so any string, even an invalid UTF-16 one, is kept as is
+                result[length++] = (byte) (0xE0 | c >> 12);
+                result[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                result[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    static String decode(byte[] bytes, int offset, int length) {
+        char[] chars = new char[length];
+        int count = 0;
+        int end = offset + length;
+        while (offset < end) {
+            int b = bytes[offset++] & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[count++] = (char) ((b & 0x1F) << 6 | bytes[offset++] & 0x3F);
+            } else {
+                chars[count++] = (char) ((b & 0x0F) << 12 | (bytes[offset++] & 0x3F) << 6 | bytes[offset++] & 0x3F);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /*
+    Sequential reader of entries, starting from the first entry of some block.
+    Entry, read last, is in buffer[0, length)
+     */
+    private class Cursor {
+        private final byte[] buffer = new byte[maxLength];
+        private int length;
+        private int position;
+        private int index;
+
+        Cursor(int block) {
+            position = blockOffsets[block];
+            index = block * blockSize;
+        }
+
+        //Reads entry with index index and moves to the next one
+        void next() {
+            int shared = readVarInt();
+            int suffix = readVarInt();
+            System.arraycopy(data, position, buffer, shared, suffix);
+            position += suffix;
+            length = shared + suffix;
+            index++;
+        }
+
+        private int readVarInt() {
+            int result = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[position++];
+                result |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+        }
+
+        String current() {
+            return decode(buffer, 0, length);
+        }
+
+        int compareTo(byte[] encodedKey, String key) {
+            return compareEntry(buffer, 0, length, encodedKey, key);
+        }
+    }
+
+    //encodedKey is used for natural ordering and key is used for comparator
+    private int compareEntry(byte[] bytes, int offset, int length, byte[] encodedKey, String key) {
+        if (comparator != null) {
+            return comparator.compare(decode(bytes, offset, length), key);
+        }
+        int limit = Math.min(length, encodedKey.length);
+        for (int i = 0; i < limit; i++) {
+            int cmp = Integer.compare(bytes[offset + i] & 0xFF, encodedKey[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, encodedKey.length);
+    }
+
+    private int compareBlockHead(int block, byte[] encodedKey, String key) {
+        //First entry of a block starts with shared length 0, which takes one byte
+        int position = blockOffsets[block] + 1;
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[position++];
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        return compareEntry(data, position, length, encodedKey, key);
+    }
+
+    private String get(int index) {
+        Cursor cursor = new Cursor(index / blockSize);
+        while (cursor.index <= index) {
+            cursor.next();
+        }
+        return cursor.current();
+    }
+
+    //Same contract as Arrays.binarySearch, but over all strings, not only [from, to)
+    private int binarySearchAll(String element) {
+        if (blockOffsets.length == 0) {
+            return -1;
+        }
+        //Same as TreeSet: NullPointerException for null with natural ordering
+        byte[] encodedKey = comparator == null ? encode(element) : null;
+        //Last block, which starts with a string not greater than element
+        int left = -1;
+        int right = blockOffsets.length;
+        while (right - left > 1) {
+            int middle = (left + right) >>> 1;
+            if (compareBlockHead(middle, encodedKey, element) <= 0) {
+                left = middle;
+            } else {
+                right = middle;
+            }
+        }
+        if (left < 0) {
+            return -1;
+        }
+        Cursor cursor = new Cursor(left);
+        int end = Math.min(count, (left + 1) * blockSize);
+        while (cursor.index < end) {
+            cursor.next();
+            int cmp = cursor.compareTo(encodedKey, element);
+            if (cmp >= 0) {
+                return cmp == 0 ? cursor.index - 1 : -cursor.index;
+            }
+        }
+        return -(end + 1);
+    }
+
+    //Same contract as Arrays.binarySearch, but indices are absolute and only [from, to) is searched
+    private int binarySearch(String element) {
+        int index = binarySearchAll(element);
+        if (index >= 0 && valid(index)) {
+            return index;
+        }
+        int insertion = index >= 0 ? index : -index - 1;
+        return -(Math.max(from, Math.min(to, insertion)) + 1);
+    }
+
+    private boolean valid(int index) {
+        return from <= index && index < to;
+    }
+
+    //Same contract as ArraySet.searchForPosition, but indices are absolute
+    private int searchForPosition(String element, int addIfFound, int addIfNotFound) {
+        int index = binarySearch(element);
+        if (index >= 0) {
+            return index + addIfFound;
+        }
+        return -index - 1 + addIfNotFound;
+    }
+
+    private String getAnswer(String element, int addIfFound, int addIfNotFound) {
+        int index = searchForPosition(element, addIfFound, addIfNotFound);
+        return valid(index) ? get(index) : null;
+    }
+
+    private static final String SET_IS_EMPTY_MESSAGE = "CompactStringArraySet is empty, cannot get ";
+
+    @Override
+    public String first() {
+        if (from < to) {
+            return get(from);
+        }
+        throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "first element");
+    }
+
+    @Override
+    public String last() {
+        if (from < to) {
+            return get(to - 1);
+        }
+        throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "last element");
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        //Same as TreeSet: ClassCastException for foreign elements
+        return binarySearch((String) o) >= 0;
+    }
+
+    @Override
+    public String lower(String element) {
+        return getAnswer(element, -1, -1);
+    }
+
+    @Override
+    public String floor(String element) {
+        return getAnswer(element, 0, -1);
+    }
+
+    @Override
+    public String ceiling(String element) {
+        return getAnswer(element, 0, 0);
+    }
+
+    @Override
+    public String higher(String element) {
+        return getAnswer(element, 1, 0);
+    }
+
+    private CompactStringArraySet range(int leftBorder, int rightBorder) {
+        if (leftBorder >= rightBorder) {
+            return new CompactStringArraySet(this, from, from);
+        }
+        return new CompactStringArraySet(this, leftBorder, rightBorder);
+    }
+
+    @Override
+    public CompactStringArraySet subSet(String fromElement, boolean fromInclusive,
+                                        String toElement, boolean toInclusive) {
+        int leftBorder = searchForPosition(fromElement, fromInclusive ? 0 : 1, 0);
+        int rightBorder = searchForPosition(toElement, toInclusive ? 0 : -1, -1) + 1;
+        return range(leftBorder, rightBorder);
+    }
+
+    @Override
+    public CompactStringArraySet headSet(String toElement, boolean inclusive) {
+        return range(from, searchForPosition(toElement, inclusive ? 0 : -1, -1) + 1);
+    }
+
+    @Override
+    public CompactStringArraySet tailSet(String fromElement, boolean inclusive) {
+        return range(searchForPosition(fromElement, inclusive ? 0 : 1, 0), to);
+    }
+
+    @Override
+    public SortedSet<String> subSet(String fromElement, String toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public SortedSet<String> headSet(String toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public SortedSet<String> tailSet(String fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        //Entries are stored one after another, so iteration reads data sequentially
+        return new Iterator<String>() {
+            private final Cursor cursor = from < to ? new Cursor(from / blockSize) : null;
+
+            {
+                if (cursor != null) {
+                    while (cursor.index < from) {
+                        cursor.next();
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return cursor != null && cursor.index < to;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                cursor.next();
+                return cursor.current();
+            }
+        };
+    }
+
+    @Override
+    public Iterator<String> descendingIterator() {
+        //Blocks can be decoded only forwards, so every block is decoded at once and returned backwards
+        return new Iterator<String>() {
+            private final String[] block = new String[blockSize];
+            private int cursor = to;
+            private int blockStart = to;
+
+            @Override
+            public boolean hasNext() {
+                return cursor > from;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                cursor--;
+                if (cursor < blockStart) {
+                    Cursor reader = new Cursor(cursor / blockSize);
+                    blockStart = reader.index;
+                    while (reader.index <= cursor) {
+                        reader.next();
+                        block[reader.index - 1 - blockStart] = reader.current();
+                    }
+                }
+                return block[cursor - blockStart];
+            }
+        };
+    }
+
+    private class StringList extends AbstractList<String> implements RandomAccess {
+        @Override
+        public String get(int index) {
+            Objects.checkIndex(index, size());
+            return CompactStringArraySet.this.get(from + index);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    @Override
+    public NavigableSet<String> descendingSet() {
+        //Descending order is served by ArraySet over decoding list, the same way as for primitive sets
+        return ArraySet.trusted(new StringList(), comparator).descendingSet();
+    }
+
+    private static final String unsupportedOperationMessage = "CompactStringArraySet is immutable, cannot perform ";
+
+    @Override
+    public String pollFirst() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "pollFirst");
+    }
+
+    @Override
+    public String pollLast() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "pollLast");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "clear");
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends String> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "addAll");
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "removeAll");
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super String> filter) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "removeIf");
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "retainAll");
+    }
+}
@@ -0,0 +1,342 @@
+package ru.ifmo.rain.kokorin.arrayset;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.OptionalDouble;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+
+public class DoubleArraySet extends AbstractSet<Double> implements NavigableSet<Double> {
+    //Shared by all subsets of one set, only [from, to) belongs to this set
+    private final double[] sortedData;
+    private final int from;
+    private final int to;
+
+    private DoubleArraySet(double[] data, int from, int to) {
+        sortedData = data;
+        this.from = from;
+        this.to = to;
+    }
+
+    public DoubleArraySet() {
+        this(new double[0], 0, 0);
+    }
+
+    public DoubleArraySet(double[] values) {
+        //throws NullPointerException, if values is null
+        double[] data = Arrays.copyOf(Objects.requireNonNull(values), values.length);
+        Arrays.sort(data);
+        sortedData = data;
+        from = 0;
+        to = removeDuplicates(data);
+    }
+
+    public DoubleArraySet(Collection<Double> collection) {
+        //throws NullPointerException, if collection or one of its elements is null
+        this(toArray(Objects.requireNonNull(collection)));
+    }
+
+    private static double[] toArray(Collection<Double> collection) {
+        double[] result = new double[collection.size()];
+        int size = 0;
+        for (Double element : collection) {
+            result[size++] = element;
+        }
+        return result;
+    }
+
+    //Returns the number of distinct elements, which are moved to the beginning of sorted array
+    private static int removeDuplicates(double[] data) {
+        if (data.length == 0) {
+            return 0;
+        }
+        int size = 1;
+        for (int i = 1; i < data.length; i++) {
+            if (Double.compare(data[i], data[size - 1]) != 0) {
+                data[size++] = data[i];
+            }
+        }
+        return size;
+    }
+
+    private static final String SET_IS_EMPTY_MESSAGE = "DoubleArraySet is empty, cannot get ";
+
+    public double firstDouble() {
+        if (from < to) {
+            return sortedData[from];
+        }
+        throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "first element");
+    }
+
+    public double lastDouble() {
+        if (from < to) {
+            return sortedData[to - 1];
+        }
+        throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "last element");
+    }
+
+    @Override
+    public Double first() {
+        return firstDouble();
+    }
+
+    @Override
+    public Double last() {
+        return lastDouble();
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    private static final String unsupportedOperationMessage = "DoubleArraySet is immutable, cannot perform ";
+
+    @Override
+    public Double pollFirst() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "pollFirst");
+    }
+
+    @Override
+    public Double pollLast() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "pollLast");
+    }
+
+    public boolean contains(double element) {
+        return Arrays.binarySearch(sortedData, from, to, element) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        //Same as TreeSet with natural ordering: ClassCastException or NullPointerException for foreign elements
+        return contains((Double) o);
+    }
+
+    public boolean contains(Double element) {
+        return contains(element.doubleValue());
+    }
+
+    private boolean valid(int index) {
+        return from <= index && index < to;
+    }
+
+    //Same contract as ArraySet.searchForPosition, but indices are absolute indices in sortedData
+    private int searchForPosition(double element, int addIfFound, int addIfNotFound) {
+        int index = Arrays.binarySearch(sortedData, from, to, element);
+        if (index >= 0) {
+            return index + addIfFound;
+        }
+        return -index - 1 + addIfNotFound;
+    }
+
+    private OptionalDouble getAnswer(double element, int addIfFound, int addIfNotFound) {
+        int index = searchForPosition(element, addIfFound, addIfNotFound);
+        if (valid(index)) {
+            return OptionalDouble.of(sortedData[index]);
+        }
+        return OptionalDouble.empty();
+    }
+
+    private Double getBoxedAnswer(Double element, int addIfFound, int addIfNotFound) {
+        int index = searchForPosition(element, addIfFound, addIfNotFound);
+        if (valid(index)) {
+            return sortedData[index];
+        }
+        return null;
+    }
+
+    public OptionalDouble lower(double element) {
+        return getAnswer(element, -1, -1);
+    }
+
+    public OptionalDouble floor(double element) {
+        return getAnswer(element, 0, -1);
+    }
+
+    public OptionalDouble ceiling(double element) {
+        return getAnswer(element, 0, 0);
+    }
+
+    public OptionalDouble higher(double element) {
+        return getAnswer(element, 1, 0);
+    }
+
+    @Override
+    public Double lower(Double element) {
+        return getBoxedAnswer(element, -1, -1);
+    }
+
+    @Override
+    public Double floor(Double element) {
+        return getBoxedAnswer(element, 0, -1);
+    }
+
+    @Override
+    public Double ceiling(Double element) {
+        return getBoxedAnswer(element, 0, 0);
+    }
+
+    @Override
+    public Double higher(Double element) {
+        return getBoxedAnswer(element, 1, 0);
+    }
+
+    private DoubleArraySet range(int leftBorder, int rightBorder) {
+        if (leftBorder >= rightBorder) {
+            return new DoubleArraySet(sortedData, from, from);
+        }
+        return new DoubleArraySet(sortedData, leftBorder, rightBorder);
+    }
+
+    public DoubleArraySet subSet(double fromElement, boolean fromInclusive, double toElement, boolean toInclusive) {
+        int leftBorder = searchForPosition(fromElement, fromInclusive ? 0 : 1, 0);
+        int rightBorder = searchForPosition(toElement, toInclusive ? 0 : -1, -1) + 1;
+        return range(leftBorder, rightBorder);
+    }
+
+    public DoubleArraySet headSet(double toElement, boolean inclusive) {
+        return range(from, searchForPosition(toElement, inclusive ? 0 : -1, -1) + 1);
+    }
+
+    public DoubleArraySet tailSet(double fromElement, boolean inclusive) {
+        return range(searchForPosition(fromElement, inclusive ? 0 : 1, 0), to);
+    }
+
+    @Override
+    public DoubleArraySet subSet(Double fromElement, boolean fromInclusive, Double toElement, boolean toInclusive) {
+        return subSet(fromElement.doubleValue(), fromInclusive, toElement.doubleValue(), toInclusive);
+    }
+
+    @Override
+    public DoubleArraySet headSet(Double toElement, boolean inclusive) {
+        return headSet(toElement.doubleValue(), inclusive);
+    }
+
+    @Override
+    public DoubleArraySet tailSet(Double fromElement, boolean inclusive) {
+        return tailSet(fromElement.doubleValue(), inclusive);
+    }
+
+    @Override
+    public SortedSet<Double> subSet(Double fromElement, Double toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public SortedSet<Double> headSet(Double toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public SortedSet<Double> tailSet(Double fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    @Override
+    public Comparator<? super Double> comparator() {
+        //Natural ordering, the same as Arrays.sort uses
+        return null;
+    }
+
+    @Override
+    public PrimitiveIterator.OfDouble iterator() {
+        return new PrimitiveIterator.OfDouble() {
+            private int cursor = from;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < to;
+            }
+
+            @Override
+            public double nextDouble() {
+                if (cursor >= to) {
+                    throw new NoSuchElementException();
+                }
+                return sortedData[cursor++];
+            }
+        };
+    }
+
+    @Override
+    public Spliterator.OfDouble spliterator() {
+        //Array spliterator splits in half and adds SIZED and SUBSIZED, comparator is null for natural ordering
+        return Spliterators.spliterator(sortedData, from, to,
+                Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.IMMUTABLE);
+    }
+
+    @Override
+    public PrimitiveIterator.OfDouble descendingIterator() {
+        return new PrimitiveIterator.OfDouble() {
+            private int cursor = to;
+
+            @Override
+            public boolean hasNext() {
+                return cursor > from;
+            }
+
+            @Override
+            public double nextDouble() {
+                if (cursor <= from) {
+                    throw new NoSuchElementException();
+                }
+                return sortedData[--cursor];
+            }
+        };
+    }
+
+    private class BoxedList extends AbstractList<Double> implements RandomAccess {
+        @Override
+        public Double get(int index) {
+            Objects.checkIndex(index, size());
+            return sortedData[from + index];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    @Override
+    public NavigableSet<Double> descendingSet() {
+        //Descending order is rarely used for primitive keys, so it is served by the boxed ArraySet
+        return ArraySet.trusted(new BoxedList(), null).descendingSet();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "clear");
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Double> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "addAll");
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "removeAll");
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Double> filter) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "removeIf");
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "retainAll");
+    }
+}
@@ -0,0 +1,55 @@
+package ru.ifmo.rain.kokorin.arrayset;
+
+import java.util.Comparator;
+import java.util.List;
+
+/*
+Copy of sorted data in Eytzinger (BFS) order: children of tree[k] are tree[2k] and tree[2k + 1].
+First levels of the search are stored together at the beginning of the array, so they stay in cache,
+and the next probe is always at 2k or 2k + 1, so the processor can load it speculatively.
+Branch-free descent (conditional move) is slower here: elements are references,
+and waiting for every dereference serializes cache misses instead of overlapping them.
+ */
+class EytzingerIndex<T> {
+    private final Object[] tree;
+    //rank[k] is the position of tree[k] in sorted data, rank[0] is used, when there is no answer
+    private final int[] rank;
+    private final Comparator<? super T> comparator;
+
+    EytzingerIndex(List<T> sortedData, Comparator<? super T> comp) {
+        comparator = comp;
+        tree = new Object[sortedData.size() + 1];
+        rank = new int[sortedData.size() + 1];
+        rank[0] = sortedData.size();
+        fill(sortedData, 1, 0);
+    }
+
+    //In-order traversal of the implicit tree visits elements in sorted order
+    private int fill(List<T> sortedData, int k, int position) {
+        if (k < tree.length) {
+            position = fill(sortedData, 2 * k, position);
+            tree[k] = sortedData.get(position);
+            rank[k] = position;
+            position = fill(sortedData, 2 * k + 1, position + 1);
+        }
+        return position;
+    }
+
+    //Position of the first element, that is not less than element, or size, if there is no such element
+    int lowerBound(T element) {
+        int k = 1;
+        while (k < tree.length) {
+            if (ArraySet.compare((T) tree[k], element, comparator) < 0) {
+                k = 2 * k + 1;
+            } else {
+                k = 2 * k;
+            }
+        }
+        /*
+        Left turn appends 0 to k, right turn appends 1. k went left at the answer, the last element not less
+        than element, and then only right, so trailing ones (and the zero before them) lead back to the answer
+         */
+        k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+        return rank[k];
+    }
+}
@@ -0,0 +1,342 @@
+package ru.ifmo.rain.kokorin.arrayset;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+
+public class IntArraySet extends AbstractSet<Integer> implements NavigableSet<Integer> {
+    //Shared by all subsets of one set, only [from, to) belongs to this set
+    private final int[] sortedData;
+    private final int from;
+    private final int to;
+
+    private IntArraySet(int[] data, int from, int to) {
+        sortedData = data;
+        this.from = from;
+        this.to = to;
+    }
+
+    public IntArraySet() {
+        this(new int[0], 0, 0);
+    }
+
+    public IntArraySet(int[] values) {
+        //throws NullPointerException, if values is null
+        int[] data = Arrays.copyOf(Objects.requireNonNull(values), values.length);
+        Arrays.sort(data);
+        sortedData = data;
+        from = 0;
+        to = removeDuplicates(data);
+    }
+
+    public IntArraySet(Collection<Integer> collection) {
+        //throws NullPointerException, if collection or one of its elements is null
+        this(toArray(Objects.requireNonNull(collection)));
+    }
+
+    private static int[] toArray(Collection<Integer> collection) {
+        int[] result = new int[collection.size()];
+        int size = 0;
+        for (Integer element : collection) {
+            result[size++] = element;
+        }
+        return result;
+    }
+
+    //Returns the number of distinct elements, which are moved to the beginning of sorted array
+    private static int removeDuplicates(int[] data) {
+        if (data.length == 0) {
+            return 0;
+        }
+        int size = 1;
+        for (int i = 1; i < data.length; i++) {
+            if (Integer.compare(data[i], data[size - 1]) != 0) {
+                data[size++] = data[i];
+            }
+        }
+        return size;
+    }
+
+    private static final String SET_IS_EMPTY_MESSAGE = "IntArraySet is empty, cannot get ";
+
+    public int firstInt() {
+        if (from < to) {
+            return sortedData[from];
+        }
+        throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "first element");
+    }
+
+    public int lastInt() {
+        if (from < to) {
+            return sortedData[to - 1];
+        }
+        throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "last element");
+    }
+
+    @Override
+    public Integer first() {
+        return firstInt();
+    }
+
+    @Override
+    public Integer last() {
+        return lastInt();
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    private static final String unsupportedOperationMessage = "IntArraySet is immutable, cannot perform ";
+
+    @Override
+    public Integer pollFirst() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "pollFirst");
+    }
+
+    @Override
+    public Integer pollLast() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "pollLast");
+    }
+
+    public boolean contains(int element) {
+        return Arrays.binarySearch(sortedData, from, to, element) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        //Same as TreeSet with natural ordering: ClassCastException or NullPointerException for foreign elements
+        return contains((Integer) o);
+    }
+
+    public boolean contains(Integer element) {
+        return contains(element.intValue());
+    }
+
+    private boolean valid(int index) {
+        return from <= index && index < to;
+    }
+
+    //Same contract as ArraySet.searchForPosition, but indices are absolute indices in sortedData
+    private int searchForPosition(int element, int addIfFound, int addIfNotFound) {
+        int index = Arrays.binarySearch(sortedData, from, to, element);
+        if (index >= 0) {
+            return index + addIfFound;
+        }
+        return -index - 1 + addIfNotFound;
+    }
+
+    private OptionalInt getAnswer(int element, int addIfFound, int addIfNotFound) {
+        int index = searchForPosition(element, addIfFound, addIfNotFound);
+        if (valid(index)) {
+            return OptionalInt.of(sortedData[index]);
+        }
+        return OptionalInt.empty();
+    }
+
+    private Integer getBoxedAnswer(Integer element, int addIfFound, int addIfNotFound) {
+        int index = searchForPosition(element, addIfFound, addIfNotFound);
+        if (valid(index)) {
+            return sortedData[index];
+        }
+        return null;
+    }
+
+    public OptionalInt lower(int element) {
+        return getAnswer(element, -1, -1);
+    }
+
+    public OptionalInt floor(int element) {
+        return getAnswer(element, 0, -1);
+    }
+
+    public OptionalInt ceiling(int element) {
+        return getAnswer(element, 0, 0);
+    }
+
+    public OptionalInt higher(int element) {
+        return getAnswer(element, 1, 0);
+    }
+
+    @Override
+    public Integer lower(Integer element) {
+        return getBoxedAnswer(element, -1, -1);
+    }
+
+    @Override
+    public Integer floor(Integer element) {
+        return getBoxedAnswer(element, 0, -1);
+    }
+
+    @Override
+    public Integer ceiling(Integer element) {
+        return getBoxedAnswer(element, 0, 0);
+    }
+
+    @Override
+    public Integer higher(Integer element) {
+        return getBoxedAnswer(element, 1, 0);
+    }
+
+    private IntArraySet range(int leftBorder, int rightBorder) {
+        if (leftBorder >= rightBorder) {
+            return new IntArraySet(sortedData, from, from);
+        }
+        return new IntArraySet(sortedData, leftBorder, rightBorder);
+    }
+
+    public IntArraySet subSet(int fromElement, boolean fromInclusive, int toElement, boolean toInclusive) {
+        int leftBorder = searchForPosition(fromElement, fromInclusive ? 0 : 1, 0);
+        int rightBorder = searchForPosition(toElement, toInclusive ? 0 : -1, -1) + 1;
+        return range(leftBorder, rightBorder);
+    }
+
+    public IntArraySet headSet(int toElement, boolean inclusive) {
+        return range(from, searchForPosition(toElement, inclusive ? 0 : -1, -1) + 1);
+    }
+
+    public IntArraySet tailSet(int fromElement, boolean inclusive) {
+        return range(searchForPosition(fromElement, inclusive ? 0 : 1, 0), to);
+    }
+
+    @Override
+    public IntArraySet subSet(Integer fromElement, boolean fromInclusive, Integer toElement, boolean toInclusive) {
+        return subSet(fromElement.intValue(), fromInclusive, toElement.intValue(), toInclusive);
+    }
+
+    @Override
+    public IntArraySet headSet(Integer toElement, boolean inclusive) {
+        return headSet(toElement.intValue(), inclusive);
+    }
+
+    @Override
+    public IntArraySet tailSet(Integer fromElement, boolean inclusive) {
+        return tailSet(fromElement.intValue(), inclusive);
+    }
+
+    @Override
+    public SortedSet<Integer> subSet(Integer fromElement, Integer toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public SortedSet<Integer> headSet(Integer toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public SortedSet<Integer> tailSet(Integer fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    @Override
+    public Comparator<? super Integer> comparator() {
+        //Natural ordering, the same as Arrays.sort uses
+        return null;
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int cursor = from;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < to;
+            }
+
+            @Override
+            public int nextInt() {
+                if (cursor >= to) {
+                    throw new NoSuchElementException();
+                }
+                return sortedData[cursor++];
+            }
+        };
+    }
+
+    @Override
+    public Spliterator.OfInt spliterator() {
+        //Array spliterator splits in half and adds SIZED and SUBSIZED, comparator is null for natural ordering
+        return Spliterators.spliterator(sortedData, from, to,
+                Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.IMMUTABLE);
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt descendingIterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int cursor = to;
+
+            @Override
+            public boolean hasNext() {
+                return cursor > from;
+            }
+
+            @Override
+            public int nextInt() {
+                if (cursor <= from) {
+                    throw new NoSuchElementException();
+                }
+                return sortedData[--cursor];
+            }
+        };
+    }
+
+    private class BoxedList extends AbstractList<Integer> implements RandomAccess {
+        @Override
+        public Integer get(int index) {
+            Objects.checkIndex(index, size());
+            return sortedData[from + index];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    @Override
+    public NavigableSet<Integer> descendingSet() {
+        //Descending order is rarely used for primitive keys, so it is served by the boxed ArraySet
+        return ArraySet.trusted(new BoxedList(), null).descendingSet();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "clear");
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Integer> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "addAll");
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "removeAll");
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Integer> filter) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "removeIf");
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "retainAll");
+    }
+}
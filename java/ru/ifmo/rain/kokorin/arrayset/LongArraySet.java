@@ -0,0 +1,342 @@
+package ru.ifmo.rain.kokorin.arrayset;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+
+public class LongArraySet extends AbstractSet<Long> implements NavigableSet<Long> {
+    //Shared by all subsets of one set, only [from, to) belongs to this set
+    private final long[] sortedData;
+    private final int from;
+    private final int to;
+
+    private LongArraySet(long[] data, int from, int to) {
+        sortedData = data;
+        this.from = from;
+        this.to = to;
+    }
+
+    public LongArraySet() {
+        this(new long[0], 0, 0);
+    }
+
+    public LongArraySet(long[] values) {
+        //throws NullPointerException, if values is null
+        long[] data = Arrays.copyOf(Objects.requireNonNull(values), values.length);
+        Arrays.sort(data);
+        sortedData = data;
+        from = 0;
+        to = removeDuplicates(data);
+    }
+
+    public LongArraySet(Collection<Long> collection) {
+        //throws NullPointerException, if collection or one of its elements is null
+        this(toArray(Objects.requireNonNull(collection)));
+    }
+
+    private static long[] toArray(Collection<Long> collection) {
+        long[] result = new long[collection.size()];
+        int size = 0;
+        for (Long element : collection) {
+            result[size++] = element;
+        }
+        return result;
+    }
+
+    //Returns the number of distinct elements, which are moved to the beginning of sorted array
+    private static int removeDuplicates(long[] data) {
+        if (data.length == 0) {
+            return 0;
+        }
+        int size = 1;
+        for (int i = 1; i < data.length; i++) {
+            if (Long.compare(data[i], data[size - 1]) != 0) {
+                data[size++] = data[i];
+            }
+        }
+        return size;
+    }
+
+    private static final String SET_IS_EMPTY_MESSAGE = "LongArraySet is empty, cannot get ";
+
+    public long firstLong() {
+        if (from < to) {
+            return sortedData[from];
+        }
+        throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "first element");
+    }
+
+    public long lastLong() {
+        if (from < to) {
+            return sortedData[to - 1];
+        }
+        throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "last element");
+    }
+
+    @Override
+    public Long first() {
+        return firstLong();
+    }
+
+    @Override
+    public Long last() {
+        return lastLong();
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    private static final String unsupportedOperationMessage = "LongArraySet is immutable, cannot perform ";
+
+    @Override
+    public Long pollFirst() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "pollFirst");
+    }
+
+    @Override
+    public Long pollLast() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "pollLast");
+    }
+
+    public boolean contains(long element) {
+        return Arrays.binarySearch(sortedData, from, to, element) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        //Same as TreeSet with natural ordering: ClassCastException or NullPointerException for foreign elements
+        return contains((Long) o);
+    }
+
+    public boolean contains(Long element) {
+        return contains(element.longValue());
+    }
+
+    private boolean valid(int index) {
+        return from <= index && index < to;
+    }
+
+    //Same contract as ArraySet.searchForPosition, but indices are absolute indices in sortedData
+    private int searchForPosition(long element, int addIfFound, int addIfNotFound) {
+        int index = Arrays.binarySearch(sortedData, from, to, element);
+        if (index >= 0) {
+            return index + addIfFound;
+        }
+        return -index - 1 + addIfNotFound;
+    }
+
+    private OptionalLong getAnswer(long element, int addIfFound, int addIfNotFound) {
+        int index = searchForPosition(element, addIfFound, addIfNotFound);
+        if (valid(index)) {
+            return OptionalLong.of(sortedData[index]);
+        }
+        return OptionalLong.empty();
+    }
+
+    private Long getBoxedAnswer(Long element, int addIfFound, int addIfNotFound) {
+        int index = searchForPosition(element, addIfFound, addIfNotFound);
+        if (valid(index)) {
+            return sortedData[index];
+        }
+        return null;
+    }
+
+    public OptionalLong lower(long element) {
+        return getAnswer(element, -1, -1);
+    }
+
+    public OptionalLong floor(long element) {
+        return getAnswer(element, 0, -1);
+    }
+
+    public OptionalLong ceiling(long element) {
+        return getAnswer(element, 0, 0);
+    }
+
+    public OptionalLong higher(long element) {
+        return getAnswer(element, 1, 0);
+    }
+
+    @Override
+    public Long lower(Long element) {
+        return getBoxedAnswer(element, -1, -1);
+    }
+
+    @Override
+    public Long floor(Long element) {
+        return getBoxedAnswer(element, 0, -1);
+    }
+
+    @Override
+    public Long ceiling(Long element) {
+        return getBoxedAnswer(element, 0, 0);
+    }
+
+    @Override
+    public Long higher(Long element) {
+        return getBoxedAnswer(element, 1, 0);
+    }
+
+    private LongArraySet range(int leftBorder, int rightBorder) {
+        if (leftBorder >= rightBorder) {
+            return new LongArraySet(sortedData, from, from);
+        }
+        return new LongArraySet(sortedData, leftBorder, rightBorder);
+    }
+
+    public LongArraySet subSet(long fromElement, boolean fromInclusive, long toElement, boolean toInclusive) {
+        int leftBorder = searchForPosition(fromElement, fromInclusive ? 0 : 1, 0);
+        int rightBorder = searchForPosition(toElement, toInclusive ? 0 : -1, -1) + 1;
+        return range(leftBorder, rightBorder);
+    }
+
+    public LongArraySet headSet(long toElement, boolean inclusive) {
+        return range(from, searchForPosition(toElement, inclusive ? 0 : -1, -1) + 1);
+    }
+
+    public LongArraySet tailSet(long fromElement, boolean inclusive) {
+        return range(searchForPosition(fromElement, inclusive ? 0 : 1, 0), to);
+    }
+
+    @Override
+    public LongArraySet subSet(Long fromElement, boolean fromInclusive, Long toElement, boolean toInclusive) {
+        return subSet(fromElement.longValue(), fromInclusive, toElement.longValue(), toInclusive);
+    }
+
+    @Override
+    public LongArraySet headSet(Long toElement, boolean inclusive) {
+        return headSet(toElement.longValue(), inclusive);
+    }
+
+    @Override
+    public LongArraySet tailSet(Long fromElement, boolean inclusive) {
+        return tailSet(fromElement.longValue(), inclusive);
+    }
+
+    @Override
+    public SortedSet<Long> subSet(Long fromElement, Long toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public SortedSet<Long> headSet(Long toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public SortedSet<Long> tailSet(Long fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    @Override
+    public Comparator<? super Long> comparator() {
+        //Natural ordering, the same as Arrays.sort uses
+        return null;
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int cursor = from;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < to;
+            }
+
+            @Override
+            public long nextLong() {
+                if (cursor >= to) {
+                    throw new NoSuchElementException();
+                }
+                return sortedData[cursor++];
+            }
+        };
+    }
+
+    @Override
+    public Spliterator.OfLong spliterator() {
+        //Array spliterator splits in half and adds SIZED and SUBSIZED, comparator is null for natural ordering
+        return Spliterators.spliterator(sortedData, from, to,
+                Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.IMMUTABLE);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong descendingIterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int cursor = to;
+
+            @Override
+            public boolean hasNext() {
+                return cursor > from;
+            }
+
+            @Override
+            public long nextLong() {
+                if (cursor <= from) {
+                    throw new NoSuchElementException();
+                }
+                return sortedData[--cursor];
+            }
+        };
+    }
+
+    private class BoxedList extends AbstractList<Long> implements RandomAccess {
+        @Override
+        public Long get(int index) {
+            Objects.checkIndex(index, size());
+            return sortedData[from + index];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    @Override
+    public NavigableSet<Long> descendingSet() {
+        //Descending order is rarely used for primitive keys, so it is served by the boxed ArraySet
+        return ArraySet.trusted(new BoxedList(), null).descendingSet();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "clear");
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Long> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "addAll");
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "removeAll");
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Long> filter) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "removeIf");
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "retainAll");
+    }
+}
@@ -0,0 +1,408 @@
+package ru.ifmo.rain.kokorin.arrayset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
+import java.util.SortedSet;
+import java.util.function.Predicate;
+
+/*
+Sorted set of long keys, stored in a file and read through memory mapping, without loading it into heap.
+File format: MAGIC (int), VERSION (int), number of keys (long), keys in strictly ascending order (long each),
+all values are big-endian.
+ */
+public class MappedLongArraySet extends AbstractSet<Long> implements NavigableSet<Long> {
+    private static final int MAGIC = 0x4C534554;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    //One mapping cannot be larger than 2 GB, so the file is mapped by segments of 2^27 keys (1 GB)
+    private static final int SEGMENT_SHIFT = 27;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    //Shared by all subsets of one set, only [from, to) belongs to this set
+    private final LongBuffer[] segments;
+    private final long from;
+    private final long to;
+
+    private MappedLongArraySet(LongBuffer[] segments, long from, long to) {
+        this.segments = segments;
+        this.from = from;
+        this.to = to;
+    }
+
+    public static MappedLongArraySet open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a MappedLongArraySet file: " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a MappedLongArraySet file: " + file);
+            }
+            long count = header.getLong();
+            //Division, so that a huge count of a broken header does not overflow
+            if (count < 0 || count > (channel.size() - HEADER_SIZE) / Long.BYTES) {
+                throw new IOException("Truncated MappedLongArraySet file: " + file);
+            }
+
+            LongBuffer[] segments = new LongBuffer[(int) ((count + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long first = (long) i << SEGMENT_SHIFT;
+                long length = Math.min(count - first, 1L << SEGMENT_SHIFT);
+                //Mapping stays valid after the channel is closed
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + first * Long.BYTES, length * Long.BYTES).asLongBuffer();
+            }
+            return new MappedLongArraySet(segments, 0, count);
+        }
+    }
+
+    //Writes keys of the set in the format of MappedLongArraySet, set should use natural ordering
+    //Order is checked here, so open() can trust it
+    public static void write(SortedSet<Long> set, Path file) throws IOException {
+        if (set.comparator() != null) {
+            throw new IllegalArgumentException("Only sets with natural ordering can be written");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            //Number of keys is not known for sets of size Integer.MAX_VALUE, so it is written at the end
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(0);
+            long count = 0;
+            long previous = 0;
+            Iterator<Long> iterator = set.iterator();
+            PrimitiveIterator.OfLong longs = iterator instanceof PrimitiveIterator.OfLong
+                    ? (PrimitiveIterator.OfLong) iterator : null;
+            while (iterator.hasNext()) {
+                long key = longs != null ? longs.nextLong() : iterator.next();
+                if (count > 0 && key <= previous) {
+                    throw new IllegalArgumentException("Keys of the set are not in ascending order");
+                }
+                if (!buffer.hasRemaining()) {
+                    writeFully(channel, buffer);
+                }
+                buffer.putLong(key);
+                previous = key;
+                count++;
+            }
+            writeFully(channel, buffer);
+            buffer.putLong(count);
+            buffer.flip();
+            channel.write(buffer, Integer.BYTES * 2);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private long get(long index) {
+        return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+    }
+
+    //Same contract as Arrays.binarySearch, but over [from, to) of the mapped keys
+    private long binarySearch(long element) {
+        long left = from;
+        long right = to - 1;
+        while (left <= right) {
+            long middle = (left + right) >>> 1;
+            long value = get(middle);
+            if (value < element) {
+                left = middle + 1;
+            } else if (value > element) {
+                right = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(left + 1);
+    }
+
+    private static final String SET_IS_EMPTY_MESSAGE = "MappedLongArraySet is empty, cannot get ";
+
+    public long firstLong() {
+        if (from < to) {
+            return get(from);
+        }
+        throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "first element");
+    }
+
+    public long lastLong() {
+        if (from < to) {
+            return get(to - 1);
+        }
+        throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "last element");
+    }
+
+    @Override
+    public Long first() {
+        return firstLong();
+    }
+
+    @Override
+    public Long last() {
+        return lastLong();
+    }
+
+    //Sets larger than Integer.MAX_VALUE elements report Integer.MAX_VALUE, as Collection.size() requires
+    @Override
+    public int size() {
+        return (int) Math.min(to - from, Integer.MAX_VALUE);
+    }
+
+    public long longSize() {
+        return to - from;
+    }
+
+    private static final String unsupportedOperationMessage = "MappedLongArraySet is immutable, cannot perform ";
+
+    @Override
+    public Long pollFirst() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "pollFirst");
+    }
+
+    @Override
+    public Long pollLast() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "pollLast");
+    }
+
+    public boolean contains(long element) {
+        return binarySearch(element) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        //Same as TreeSet with natural ordering: ClassCastException or NullPointerException for foreign elements
+        return contains((Long) o);
+    }
+
+    public boolean contains(Long element) {
+        return contains(element.longValue());
+    }
+
+    private boolean valid(long index) {
+        return from <= index && index < to;
+    }
+
+    //Same contract as ArraySet.searchForPosition, but indices are absolute indices of mapped keys
+    private long searchForPosition(long element, int addIfFound, int addIfNotFound) {
+        long index = binarySearch(element);
+        if (index >= 0) {
+            return index + addIfFound;
+        }
+        return -index - 1 + addIfNotFound;
+    }
+
+    private OptionalLong getAnswer(long element, int addIfFound, int addIfNotFound) {
+        long index = searchForPosition(element, addIfFound, addIfNotFound);
+        if (valid(index)) {
+            return OptionalLong.of(get(index));
+        }
+        return OptionalLong.empty();
+    }
+
+    private Long getBoxedAnswer(Long element, int addIfFound, int addIfNotFound) {
+        long index = searchForPosition(element, addIfFound, addIfNotFound);
+        if (valid(index)) {
+            return get(index);
+        }
+        return null;
+    }
+
+    public OptionalLong lower(long element) {
+        return getAnswer(element, -1, -1);
+    }
+
+    public OptionalLong floor(long element) {
+        return getAnswer(element, 0, -1);
+    }
+
+    public OptionalLong ceiling(long element) {
+        return getAnswer(element, 0, 0);
+    }
+
+    public OptionalLong higher(long element) {
+        return getAnswer(element, 1, 0);
+    }
+
+    @Override
+    public Long lower(Long element) {
+        return getBoxedAnswer(element, -1, -1);
+    }
+
+    @Override
+    public Long floor(Long element) {
+        return getBoxedAnswer(element, 0, -1);
+    }
+
+    @Override
+    public Long ceiling(Long element) {
+        return getBoxedAnswer(element, 0, 0);
+    }
+
+    @Override
+    public Long higher(Long element) {
+        return getBoxedAnswer(element, 1, 0);
+    }
+
+    private MappedLongArraySet range(long leftBorder, long rightBorder) {
+        if (leftBorder >= rightBorder) {
+            return new MappedLongArraySet(segments, from, from);
+        }
+        return new MappedLongArraySet(segments, leftBorder, rightBorder);
+    }
+
+    public MappedLongArraySet subSet(long fromElement, boolean fromInclusive, long toElement, boolean toInclusive) {
+        long leftBorder = searchForPosition(fromElement, fromInclusive ? 0 : 1, 0);
+        long rightBorder = searchForPosition(toElement, toInclusive ? 0 : -1, -1) + 1;
+        return range(leftBorder, rightBorder);
+    }
+
+    public MappedLongArraySet headSet(long toElement, boolean inclusive) {
+        return range(from, searchForPosition(toElement, inclusive ? 0 : -1, -1) + 1);
+    }
+
+    public MappedLongArraySet tailSet(long fromElement, boolean inclusive) {
+        return range(searchForPosition(fromElement, inclusive ? 0 : 1, 0), to);
+    }
+
+    @Override
+    public MappedLongArraySet subSet(Long fromElement, boolean fromInclusive, Long toElement, boolean toInclusive) {
+        return subSet(fromElement.longValue(), fromInclusive, toElement.longValue(), toInclusive);
+    }
+
+    @Override
+    public MappedLongArraySet headSet(Long toElement, boolean inclusive) {
+        return headSet(toElement.longValue(), inclusive);
+    }
+
+    @Override
+    public MappedLongArraySet tailSet(Long fromElement, boolean inclusive) {
+        return tailSet(fromElement.longValue(), inclusive);
+    }
+
+    @Override
+    public SortedSet<Long> subSet(Long fromElement, Long toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public SortedSet<Long> headSet(Long toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public SortedSet<Long> tailSet(Long fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    @Override
+    public Comparator<? super Long> comparator() {
+        return null;
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private long cursor = from;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < to;
+            }
+
+            @Override
+            public long nextLong() {
+                if (cursor >= to) {
+                    throw new NoSuchElementException();
+                }
+                return get(cursor++);
+            }
+        };
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong descendingIterator() {
+        return new PrimitiveIterator.OfLong() {
+            private long cursor = to;
+
+            @Override
+            public boolean hasNext() {
+                return cursor > from;
+            }
+
+            @Override
+            public long nextLong() {
+                if (cursor <= from) {
+                    throw new NoSuchElementException();
+                }
+                return get(--cursor);
+            }
+        };
+    }
+
+    private class BoxedList extends AbstractList<Long> implements RandomAccess {
+        private final int size = Math.toIntExact(to - from);
+
+        @Override
+        public Long get(int index) {
+            Objects.checkIndex(index, size);
+            return MappedLongArraySet.this.get(from + index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    //Descending order is served by the boxed ArraySet, so it is limited to Integer.MAX_VALUE elements
+    @Override
+    public NavigableSet<Long> descendingSet() {
+        return ArraySet.trusted(new BoxedList(), null).descendingSet();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "clear");
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Long> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "addAll");
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "removeAll");
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Long> filter) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "removeIf");
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException(unsupportedOperationMessage + "retainAll");
+    }
+}
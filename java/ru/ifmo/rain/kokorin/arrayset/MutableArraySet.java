@@ -0,0 +1,688 @@
+package ru.ifmo.rain.kokorin.arrayset;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+
+/*
+Updates are buffered in small sorted deltas over immutable ArraySet and merged into
+a new ArraySet, when there are more than compactionThreshold of them.
+Queries merge answers of the base set and of the deltas.
+Range views and descending views are backed by this set, like views of TreeSet:
+they navigate the merged state with lower() and higher(), so they never compact the set.
+size() of a view counts its elements, O(k log n) for k elements in the range,
+and the result is kept till the next update of the set.
+ */
+public class MutableArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 1024;
+
+    private final Comparator<? super T> comparator;
+    private final int compactionThreshold;
+    private ArraySet<T> base;
+    /*
+    Compaction replaces base and deltas with new objects instead of changing them,
+    so an iterator, created before it, would update the old deltas: such iterators throw ConcurrentModificationException
+     */
+    //Elements, which are not in base or were removed from base and added again
+    private TreeSet<T> added;
+    //Elements of base, which were removed
+    private TreeSet<T> removed;
+    //Number of updates, iterator() fails fast, if the set is changed not through it
+    private int modCount;
+
+    public MutableArraySet(ArraySet<T> base, int compactionThreshold) {
+        if (compactionThreshold <= 0) {
+            throw new IllegalArgumentException("Compaction threshold should be positive");
+        }
+        //throws NullPointerException, if base is null
+        comparator = base.comparator();
+        this.compactionThreshold = compactionThreshold;
+        this.base = base;
+        added = new TreeSet<>(comparator);
+        removed = new TreeSet<>(comparator);
+    }
+
+    public MutableArraySet(Collection<? extends T> collection, Comparator<? super T> comp) {
+        this(new ArraySet<>(collection, comp), DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    public MutableArraySet(Comparator<? super T> comp, int compactionThreshold) {
+        this(ArraySet.trusted(Collections.emptyList(), comp), compactionThreshold);
+    }
+
+    public MutableArraySet(Comparator<? super T> comp) {
+        this(comp, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    public MutableArraySet() {
+        this(null);
+    }
+
+    /*
+    Immutable state of the set at the moment of the call, later updates of this set do not change it.
+    Merges pending updates into the base set, so it is an update, not a read: O(n), if there are pending updates,
+    and it should not run concurrently with other calls.
+     */
+    public ArraySet<T> snapshot() {
+        compact();
+        return base;
+    }
+
+    private void compact() {
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        ArraySet<T> kept = ArraySet.difference(base, ArraySet.ofSorted(removed, comparator));
+        base = ArraySet.union(kept, ArraySet.ofSorted(added, comparator));
+        added = new TreeSet<>(comparator);
+        removed = new TreeSet<>(comparator);
+        modCount++;
+    }
+
+    //Returns true, if the set was compacted
+    private boolean compactIfNeeded() {
+        if (added.size() + removed.size() > compactionThreshold) {
+            compact();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return base.size() - removed.size() + added.size();
+    }
+
+    private boolean inBase(Object o) {
+        return base.contains(o) && !removed.contains(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return added.contains(o) || inBase(o);
+    }
+
+    @Override
+    public boolean add(T element) {
+        if (contains(element)) {
+            return false;
+        }
+        added.add(element);
+        modCount++;
+        compactIfNeeded();
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (added.remove(o)) {
+            modCount++;
+            return true;
+        }
+        if (!inBase(o)) {
+            return false;
+        }
+        //ClassCastException is impossible here, as base contains o
+        removed.add((T) o);
+        modCount++;
+        compactIfNeeded();
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        base = ArraySet.trusted(Collections.emptyList(), comparator);
+        added = new TreeSet<>(comparator);
+        removed = new TreeSet<>(comparator);
+        modCount++;
+    }
+
+    //Skips removed elements of base, moving from candidate in direction of next
+    private T skipRemoved(T candidate, UnaryOperator<T> next) {
+        while (candidate != null && removed.contains(candidate)) {
+            candidate = next.apply(candidate);
+        }
+        return candidate;
+    }
+
+    private T choose(T fromBase, T fromAdded, boolean greater) {
+        if (fromBase == null) {
+            return fromAdded;
+        }
+        if (fromAdded == null) {
+            return fromBase;
+        }
+        int cmp = ArraySet.compare(fromBase, fromAdded, comparator);
+        return (cmp > 0) == greater ? fromBase : fromAdded;
+    }
+
+    @Override
+    public T lower(T element) {
+        return choose(skipRemoved(base.lower(element), base::lower), added.lower(element), true);
+    }
+
+    @Override
+    public T floor(T element) {
+        return choose(skipRemoved(base.floor(element), base::lower), added.floor(element), true);
+    }
+
+    @Override
+    public T ceiling(T element) {
+        return choose(skipRemoved(base.ceiling(element), base::higher), added.ceiling(element), false);
+    }
+
+    @Override
+    public T higher(T element) {
+        return choose(skipRemoved(base.higher(element), base::higher), added.higher(element), false);
+    }
+
+    private T firstOrNull() {
+        T fromBase = base.isEmpty() ? null : skipRemoved(base.first(), base::higher);
+        return choose(fromBase, added.isEmpty() ? null : added.first(), false);
+    }
+
+    private T lastOrNull() {
+        T fromBase = base.isEmpty() ? null : skipRemoved(base.last(), base::lower);
+        return choose(fromBase, added.isEmpty() ? null : added.last(), true);
+    }
+
+    private static final String SET_IS_EMPTY_MESSAGE = "MutableArraySet is empty, cannot get ";
+
+    @Override
+    public T first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "first element");
+        }
+        return firstOrNull();
+    }
+
+    @Override
+    public T last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "last element");
+        }
+        return lastOrNull();
+    }
+
+    @Override
+    public T pollFirst() {
+        if (isEmpty()) {
+            return null;
+        }
+        T element = firstOrNull();
+        remove(element);
+        return element;
+    }
+
+    @Override
+    public T pollLast() {
+        if (isEmpty()) {
+            return null;
+        }
+        T element = lastOrNull();
+        remove(element);
+        return element;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        //Sorted merge of base without removed elements and added elements
+        return new Iterator<T>() {
+            private Iterator<T> baseIterator = base.iterator();
+            private TreeSet<T> added = MutableArraySet.this.added;
+            private TreeSet<T> removed = MutableArraySet.this.removed;
+            //Compaction replaces base and deltas, so any update, not made by this iterator, invalidates it
+            private int expectedModCount = modCount;
+            private boolean hasNextFromBase;
+            private T nextFromBase;
+            /*
+            added is traversed with higher() instead of its iterator,
+            so remove() can change it without ConcurrentModificationException
+             */
+            private T nextFromAdded = added.isEmpty() ? null : added.first();
+            private boolean lastFromBase;
+            private T lastReturned;
+            private boolean canRemove;
+
+            {
+                advanceBase();
+            }
+
+            private void advanceBase() {
+                hasNextFromBase = false;
+                while (baseIterator.hasNext()) {
+                    T element = baseIterator.next();
+                    if (!removed.contains(element)) {
+                        hasNextFromBase = true;
+                        nextFromBase = element;
+                        return;
+                    }
+                }
+            }
+
+            private void checkForComodification() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return hasNextFromBase || nextFromAdded != null;
+            }
+
+            @Override
+            public T next() {
+                checkForComodification();
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                lastFromBase = hasNextFromBase && (nextFromAdded == null
+                        || ArraySet.compare(nextFromBase, nextFromAdded, comparator) < 0);
+                if (lastFromBase) {
+                    lastReturned = nextFromBase;
+                    advanceBase();
+                } else {
+                    lastReturned = nextFromAdded;
+                    nextFromAdded = added.higher(nextFromAdded);
+                }
+                canRemove = true;
+                return lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                if (!canRemove) {
+                    throw new IllegalStateException();
+                }
+                checkForComodification();
+                if (lastFromBase) {
+                    removed.add(lastReturned);
+                } else {
+                    added.remove(lastReturned);
+                }
+                modCount++;
+                if (compactIfNeeded()) {
+                    //Iteration goes on over the new base after the removed element, the new deltas are empty
+                    baseIterator = base.tailSet(lastReturned, false).iterator();
+                    added = MutableArraySet.this.added;
+                    removed = MutableArraySet.this.removed;
+                    nextFromAdded = null;
+                    advanceBase();
+                }
+                expectedModCount = modCount;
+                canRemove = false;
+            }
+        };
+    }
+
+    @Override
+    public Comparator<? super T> comparator() {
+        return comparator;
+    }
+
+    //View of the whole set
+    private View all(boolean descending) {
+        return new View(null, false, false, null, false, false, descending);
+    }
+
+    @Override
+    public NavigableSet<T> descendingSet() {
+        return all(true);
+    }
+
+    @Override
+    public Iterator<T> descendingIterator() {
+        return all(true).iterator();
+    }
+
+    @Override
+    public NavigableSet<T> subSet(T fromElement, boolean fromInclusive, T toElement, boolean toInclusive) {
+        return all(false).subSet(fromElement, fromInclusive, toElement, toInclusive);
+    }
+
+    @Override
+    public NavigableSet<T> headSet(T toElement, boolean inclusive) {
+        return all(false).headSet(toElement, inclusive);
+    }
+
+    @Override
+    public NavigableSet<T> tailSet(T fromElement, boolean inclusive) {
+        return all(false).tailSet(fromElement, inclusive);
+    }
+
+    @Override
+    public SortedSet<T> subSet(T fromElement, T toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public SortedSet<T> headSet(T toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public SortedSet<T> tailSet(T fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    /*
+    Elements of this set between bounds, low and high are bounds in the order of comparator,
+    descending views list the elements from high to low.
+    Iterators of views are weakly consistent: they move from the last returned element with lower() or higher().
+     */
+    private class View extends AbstractSet<T> implements NavigableSet<T> {
+        private final T low;
+        private final boolean hasLow;
+        private final boolean lowInclusive;
+        private final T high;
+        private final boolean hasHigh;
+        private final boolean highInclusive;
+        private final boolean descending;
+        //Size at sizeModCount, -1, if it is not counted yet
+        private int size = -1;
+        private int sizeModCount;
+
+        View(T low, boolean hasLow, boolean lowInclusive, T high, boolean hasHigh, boolean highInclusive,
+             boolean descending) {
+            this.low = low;
+            this.hasLow = hasLow;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.hasHigh = hasHigh;
+            this.highInclusive = highInclusive;
+            this.descending = descending;
+        }
+
+        private boolean tooLow(T element) {
+            if (!hasLow) {
+                return false;
+            }
+            int cmp = ArraySet.compare(element, low, comparator);
+            return cmp < 0 || cmp == 0 && !lowInclusive;
+        }
+
+        private boolean tooHigh(T element) {
+            if (!hasHigh) {
+                return false;
+            }
+            int cmp = ArraySet.compare(element, high, comparator);
+            return cmp > 0 || cmp == 0 && !highInclusive;
+        }
+
+        private boolean inRange(T element) {
+            return !tooLow(element) && !tooHigh(element);
+        }
+
+        private T lowest() {
+            T element = !hasLow ? MutableArraySet.this.firstOrNull()
+                    : lowInclusive ? MutableArraySet.this.ceiling(low) : MutableArraySet.this.higher(low);
+            return element == null || tooHigh(element) ? null : element;
+        }
+
+        private T highest() {
+            T element = !hasHigh ? MutableArraySet.this.lastOrNull()
+                    : highInclusive ? MutableArraySet.this.floor(high) : MutableArraySet.this.lower(high);
+            return element == null || tooLow(element) ? null : element;
+        }
+
+        //Navigation in the order of comparator
+        private T ascendingLower(T element) {
+            if (tooHigh(element)) {
+                return highest();
+            }
+            T result = MutableArraySet.this.lower(element);
+            return result == null || tooLow(result) ? null : result;
+        }
+
+        private T ascendingFloor(T element) {
+            if (tooHigh(element)) {
+                return highest();
+            }
+            T result = MutableArraySet.this.floor(element);
+            return result == null || tooLow(result) ? null : result;
+        }
+
+        private T ascendingCeiling(T element) {
+            if (tooLow(element)) {
+                return lowest();
+            }
+            T result = MutableArraySet.this.ceiling(element);
+            return result == null || tooHigh(result) ? null : result;
+        }
+
+        private T ascendingHigher(T element) {
+            if (tooLow(element)) {
+                return lowest();
+            }
+            T result = MutableArraySet.this.higher(element);
+            return result == null || tooHigh(result) ? null : result;
+        }
+
+        @Override
+        public T lower(T element) {
+            return descending ? ascendingHigher(element) : ascendingLower(element);
+        }
+
+        @Override
+        public T floor(T element) {
+            return descending ? ascendingCeiling(element) : ascendingFloor(element);
+        }
+
+        @Override
+        public T ceiling(T element) {
+            return descending ? ascendingFloor(element) : ascendingCeiling(element);
+        }
+
+        @Override
+        public T higher(T element) {
+            return descending ? ascendingLower(element) : ascendingHigher(element);
+        }
+
+        private T firstOrNull() {
+            return descending ? highest() : lowest();
+        }
+
+        private T lastOrNull() {
+            return descending ? lowest() : highest();
+        }
+
+        @Override
+        public T first() {
+            T element = firstOrNull();
+            if (element == null) {
+                throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "first element");
+            }
+            return element;
+        }
+
+        @Override
+        public T last() {
+            T element = lastOrNull();
+            if (element == null) {
+                throw new NoSuchElementException(SET_IS_EMPTY_MESSAGE + "last element");
+            }
+            return element;
+        }
+
+        @Override
+        public T pollFirst() {
+            T element = firstOrNull();
+            if (element != null) {
+                MutableArraySet.this.remove(element);
+            }
+            return element;
+        }
+
+        @Override
+        public T pollLast() {
+            T element = lastOrNull();
+            if (element != null) {
+                MutableArraySet.this.remove(element);
+            }
+            return element;
+        }
+
+        //Size is counted by iteration, as in views of TreeSet, and recounted only after updates of the set
+        @Override
+        public int size() {
+            if (sizeModCount != modCount || size < 0) {
+                int count = 0;
+                for (T element = lowest(); element != null; element = ascendingHigher(element)) {
+                    count++;
+                }
+                size = count;
+                sizeModCount = modCount;
+            }
+            return size;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return lowest() == null;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            //ClassCastException for elements of another type, as in the set itself
+            return inRange((T) o) && MutableArraySet.this.contains(o);
+        }
+
+        @Override
+        public boolean add(T element) {
+            if (!inRange(element)) {
+                throw new IllegalArgumentException("Element is out of the range of the view");
+            }
+            return MutableArraySet.this.add(element);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return inRange((T) o) && MutableArraySet.this.remove(o);
+        }
+
+        private Iterator<T> iterator(boolean backwards) {
+            return new Iterator<T>() {
+                private T next = backwards ? highest() : lowest();
+                private T lastReturned;
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public T next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    lastReturned = next;
+                    next = backwards ? ascendingLower(next) : ascendingHigher(next);
+                    return lastReturned;
+                }
+
+                @Override
+                public void remove() {
+                    if (lastReturned == null) {
+                        throw new IllegalStateException();
+                    }
+                    MutableArraySet.this.remove(lastReturned);
+                    lastReturned = null;
+                }
+            };
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return iterator(descending);
+        }
+
+        @Override
+        public Iterator<T> descendingIterator() {
+            return iterator(!descending);
+        }
+
+        @Override
+        public NavigableSet<T> descendingSet() {
+            return new View(low, hasLow, lowInclusive, high, hasHigh, highInclusive, !descending);
+        }
+
+        @Override
+        public Comparator<? super T> comparator() {
+            return descending ? Collections.reverseOrder(comparator) : comparator;
+        }
+
+        //Bounds are in the order of comparator, they should be inside of the bounds of this view
+        private View range(T from, boolean hasFrom, boolean fromInclusive, T to, boolean hasTo, boolean toInclusive) {
+            if (hasFrom && hasTo && ArraySet.compare(from, to, comparator) > 0) {
+                throw new IllegalArgumentException("Left border is greater than right border");
+            }
+            boolean newHasLow = hasLow;
+            T newLow = low;
+            boolean newLowInclusive = lowInclusive;
+            if (hasFrom) {
+                int cmp = hasLow ? ArraySet.compare(from, low, comparator) : 1;
+                if (cmp < 0 || hasHigh && ArraySet.compare(from, high, comparator) > 0) {
+                    throw new IllegalArgumentException("Left border is out of the range of the view");
+                }
+                newHasLow = true;
+                newLow = from;
+                newLowInclusive = cmp == 0 ? fromInclusive && lowInclusive : fromInclusive;
+            }
+            boolean newHasHigh = hasHigh;
+            T newHigh = high;
+            boolean newHighInclusive = highInclusive;
+            if (hasTo) {
+                int cmp = hasHigh ? ArraySet.compare(to, high, comparator) : -1;
+                if (cmp > 0 || hasLow && ArraySet.compare(to, low, comparator) < 0) {
+                    throw new IllegalArgumentException("Right border is out of the range of the view");
+                }
+                newHasHigh = true;
+                newHigh = to;
+                newHighInclusive = cmp == 0 ? toInclusive && highInclusive : toInclusive;
+            }
+            return new View(newLow, newHasLow, newLowInclusive, newHigh, newHasHigh, newHighInclusive, descending);
+        }
+
+        @Override
+        public NavigableSet<T> subSet(T fromElement, boolean fromInclusive, T toElement, boolean toInclusive) {
+            return descending ? range(toElement, true, toInclusive, fromElement, true, fromInclusive)
+                    : range(fromElement, true, fromInclusive, toElement, true, toInclusive);
+        }
+
+        @Override
+        public NavigableSet<T> headSet(T toElement, boolean inclusive) {
+            return descending ? range(toElement, true, inclusive, null, false, false)
+                    : range(null, false, false, toElement, true, inclusive);
+        }
+
+        @Override
+        public NavigableSet<T> tailSet(T fromElement, boolean inclusive) {
+            return descending ? range(null, false, false, fromElement, true, inclusive)
+                    : range(fromElement, true, inclusive, null, false, false);
+        }
+
+        @Override
+        public SortedSet<T> subSet(T fromElement, T toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<T> headSet(T toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<T> tailSet(T fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+}
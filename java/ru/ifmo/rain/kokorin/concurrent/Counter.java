@@ -1,13 +0,0 @@
-package ru.ifmo.rain.kokorin.concurrent;
-
-class Counter {
-    private int counter = 0;
-
-    void increment() {
-        counter++;
-    }
-
-    int get() {
-        return counter;
-    }
-}
\ No newline at end of file
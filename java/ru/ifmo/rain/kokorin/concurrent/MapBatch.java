@@ -0,0 +1,138 @@
+package ru.ifmo.rain.kokorin.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+
+/*
+Elements of one map() call. The same batch is given to several workers, and every worker takes contiguous ranges
+of elements, till there are none left.
+Ranges are guided: a range is a 1 / (SPLITS_PER_WORKER * workers) part of the remaining elements,
+so first ranges are large and the last ones are small and even out the load of the workers.
+Ranges are not shorter, than it takes about RANGE_NANOS to process them by the measured cost of an element,
+so cheap functions are not split into tiny ranges at the end.
+Elements left are counted down once per range without locks, the worker, which finishes the last range,
+completes result() and unparks the caller, if it waits in await().
+If the function throws, or result() is completed from outside, workers stop before the next element.
+ */
+class MapBatch<T, R> implements Runnable {
+    private static final int SPLITS_PER_WORKER = 2;
+    private static final long RANGE_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Function<? super T, ? extends R> function;
+    private final List<? extends T> args;
+    //null, if results are passed to onResult
+    private final List<R> answers;
+    private final ObjIntConsumer<? super R> onResult;
+    private final int workers;
+    private final AtomicInteger next = new AtomicInteger();
+    //Elements, which are not processed yet
+    private final AtomicInteger remaining;
+    private final CompletableFuture<List<R>> result = new CompletableFuture<>();
+    //Thread, which waits in await(), null for asynchronous batches
+    private final Thread caller;
+    //Time of processing of one element in the last range, 0, if no range is processed yet
+    private volatile long elementNanos;
+
+    //Results are collected to a list, if onResult is null, caller is the thread, which will call await(), if any
+    MapBatch(Function<? super T, ? extends R> function, List<? extends T> args, int workers,
+             ObjIntConsumer<? super R> onResult, Thread caller) {
+        this.function = function;
+        this.args = args;
+        this.workers = workers;
+        this.onResult = onResult;
+        this.caller = caller;
+        answers = onResult == null ? new ArrayList<>(Collections.nCopies(args.size(), null)) : null;
+        remaining = new AtomicInteger(args.size());
+        if (args.isEmpty()) {
+            result.complete(answers);
+        }
+    }
+
+    private int rangeSize(int remaining) {
+        long minimum = elementNanos == 0 ? 1 : Math.max(1, RANGE_NANOS / elementNanos);
+        long guided = remaining / (SPLITS_PER_WORKER * workers);
+        return (int) Math.min(remaining, Math.max(minimum, guided));
+    }
+
+    @Override
+    public void run() {
+        while (!result.isDone()) {
+            int from = next.get();
+            if (from >= args.size()) {
+                return;
+            }
+            int to = from + rangeSize(args.size() - from);
+            if (!next.compareAndSet(from, to)) {
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                for (int i = from; i < to; i++) {
+                    //Cancelled or failed batch is left even in the middle of a range
+                    if (result.isDone()) {
+                        return;
+                    }
+                    R value = function.apply(args.get(i));
+                    if (answers != null) {
+                        answers.set(i, value);
+                    } else {
+                        onResult.accept(value, i);
+                    }
+                }
+            } catch (Throwable e) {
+                //Worker survives, the failure goes to the caller
+                result.completeExceptionally(e);
+                wakeCaller();
+                return;
+            }
+            elementNanos = Math.max(1, (System.nanoTime() - start) / (to - from));
+
+            //Answers are visible to the thread, which sees the completed result
+            if (remaining.addAndGet(from - to) == 0) {
+                result.complete(answers);
+                wakeCaller();
+            }
+        }
+    }
+
+    private void wakeCaller() {
+        if (caller != null) {
+            LockSupport.unpark(caller);
+        }
+    }
+
+    CompletableFuture<List<R>> result() {
+        return result;
+    }
+
+    //Should be called by the caller, rethrows exceptions of the function, interrupted wait cancels the batch
+    List<R> await() throws InterruptedException {
+        while (!result.isDone()) {
+            if (Thread.interrupted()) {
+                result.cancel(false);
+                throw new InterruptedException();
+            }
+            //Returns at once, if the last range was finished before parking
+            LockSupport.park(this);
+        }
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
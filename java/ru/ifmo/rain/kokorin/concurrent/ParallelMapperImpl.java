@@ -3,26 +3,53 @@ package ru.ifmo.rain.kokorin.concurrent;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
 
 public class ParallelMapperImpl implements ParallelMapper {
     private final List<Thread> workers;
-    private final TaskQueue tasks = new TaskQueue();
+    private final TaskScheduler tasks;
+    //Batches of mapAsync() and mapStreaming(), which are not finished yet
+    private final Set<MapBatch<?, ?>> pending = ConcurrentHashMap.newKeySet();
+    /*
+    Completes futures of mapAsync() and mapStreaming(), so their dependent stages never run in workers:
+    a stage, which waits for this mapper, would otherwise hold the worker, which it waits for.
+    Threads are added, while stages block, and stop after a minute without work.
+     */
+    private final ExecutorService completions = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public ParallelMapperImpl(int threads) {
+        this(threads, false);
+    }
+
+    //With workStealing, every worker has its own deque of tasks and steals tasks from others, when it is empty
+    public ParallelMapperImpl(int threads, boolean workStealing) {
         workers = new ArrayList<>(threads);
         if (threads <= 0) {
             throw new IllegalArgumentException("Cannot create ParallelMapper using 0 or less threads");
         }
+        tasks = workStealing ? new WorkStealingScheduler(threads) : new TaskQueue();
 
         for (int i = 0; i < threads; i++) {
+            final int worker = i;
             Thread curThread = new Thread(
                     () -> {
                         try {
                             while (!Thread.currentThread().isInterrupted()) {
-                                tasks.getAndRemoveOne().run();
+                                tasks.getAndRemoveOne(worker).run();
                             }
                         } catch (InterruptedException ignored) {
                         } finally {
@@ -35,41 +62,94 @@ public class ParallelMapperImpl implements ParallelMapper {
         }
     }
 
+    //Ranges of elements are taken by index, which is slow for linked lists
+    private static <T> List<? extends T> elements(List<? extends T> args) {
+        return args instanceof RandomAccess ? args : new ArrayList<>(args);
+    }
+
+    //Every worker takes ranges of elements from the batch, till there are none left
+    private void submit(MapBatch<?, ?> batch, int size) throws InterruptedException {
+        for (int i = 0; i < Math.min(workers.size(), size); i++) {
+            tasks.addTask(batch);
+        }
+    }
+
     @Override
     public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args)
             throws InterruptedException {
-        final List<R> answers = new ArrayList<>(Collections.nCopies(args.size(), null));
-        final Counter readyAnswers = new Counter();
-
-        for (int i = 0; i < args.size(); i++) {
-            final int finalI = i;
-
-            Runnable newTask = () -> {
-                T argument = args.get(finalI);
-                R result = f.apply(argument);
-                answers.set(finalI, result);
+        List<? extends T> elements = elements(args);
+        MapBatch<T, R> batch = new MapBatch<>(f, elements, workers.size(), null, Thread.currentThread());
+        submit(batch, elements.size());
+        return batch.await();
+    }
 
-                synchronized (readyAnswers) {
-                    readyAnswers.increment();
-                    if (readyAnswers.get() == args.size()) {
-                        readyAnswers.notify();
-                    }
+    private <T, R> CompletableFuture<List<R>> submitAsync(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                          ObjIntConsumer<? super R> onResult) {
+        List<? extends T> elements = elements(args);
+        MapBatch<T, R> batch = new MapBatch<>(f, elements, workers.size(), onResult, null);
+        if (batch.result().isDone()) {
+            return batch.result();
+        }
+        CompletableFuture<List<R>> future = new CompletableFuture<>();
+        pending.add(batch);
+        batch.result().whenComplete((value, exception) -> {
+            pending.remove(batch);
+            Runnable complete = () -> {
+                if (exception == null) {
+                    future.complete(value);
+                } else {
+                    future.completeExceptionally(exception);
                 }
             };
-
-            tasks.addTask(newTask);
-        }
-
-        synchronized (readyAnswers) {
-            while (readyAnswers.get() < args.size()) {
-                readyAnswers.wait();
+            try {
+                completions.execute(complete);
+            } catch (RejectedExecutionException e) {
+                //Mapper is closed, there are no workers to hold
+                complete.run();
             }
+        });
+        //Cancelling of the returned future stops the batch
+        future.whenComplete((value, exception) -> batch.result().cancel(false));
+        try {
+            submit(batch, elements.size());
+        } catch (InterruptedException e) {
+            batch.result().completeExceptionally(e);
+            Thread.currentThread().interrupt();
         }
-        return answers;
+        return future;
+    }
+
+    /*
+    Same as map(), but does not wait for the results. Exceptions of f complete the future exceptionally,
+    cancelling the future stops processing of the remaining elements, close() cancels unfinished futures.
+    The future is completed outside of the workers, so its stages may call map() of this mapper.
+     */
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args) {
+        return submitAsync(f, args, null);
+    }
+
+    /*
+    Passes every result with the index of its argument to onResult as soon as it is ready, so results come
+    in the order of completion, possibly from several workers at once. Results are not collected,
+    the future is completed, when all of them are passed, otherwise the same as mapAsync().
+     */
+    public <T, R> CompletableFuture<Void> mapStreaming(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                       ObjIntConsumer<? super R> onResult) {
+        CompletableFuture<List<R>> result = submitAsync(f, args, Objects.requireNonNull(onResult));
+        CompletableFuture<Void> done = result.thenApply(answers -> null);
+        //Cancelling of the returned future stops the batch too
+        done.whenComplete((value, exception) -> result.cancel(false));
+        return done;
     }
 
     @Override
     public void close() {
+        //Workers leave cancelled batches, even if the function ignores interrupts
+        for (MapBatch<?, ?> batch : pending) {
+            batch.result().cancel(false);
+        }
+        //Futures of cancelled batches are still completed by the threads, which are running
+        completions.shutdown();
         for (Thread thread : workers) {
             thread.interrupt();
         }
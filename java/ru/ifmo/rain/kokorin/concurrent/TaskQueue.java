@@ -3,11 +3,12 @@ package ru.ifmo.rain.kokorin.concurrent;
 import java.util.ArrayDeque;
 import java.util.Queue;
 
-class TaskQueue {
+class TaskQueue implements TaskScheduler {
     private final Queue<Runnable> tasks = new ArrayDeque<>();
     private static final int MAX_SIZE = 4194304;
 
-    synchronized Runnable getAndRemoveOne() throws InterruptedException {
+    @Override
+    public synchronized Runnable getAndRemoveOne(int worker) throws InterruptedException {
         while (tasks.isEmpty()) {
             wait();
         }
@@ -16,7 +17,8 @@ class TaskQueue {
         return task;
     }
 
-    synchronized void addTask(Runnable task) throws InterruptedException {
+    @Override
+    public synchronized void addTask(Runnable task) throws InterruptedException {
         while (tasks.size() == MAX_SIZE) {
             wait();
         }
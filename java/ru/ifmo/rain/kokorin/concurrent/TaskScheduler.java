@@ -0,0 +1,8 @@
+package ru.ifmo.rain.kokorin.concurrent;
+
+//Hands tasks of ParallelMapperImpl to its workers, workers are numbered from 0
+interface TaskScheduler {
+    void addTask(Runnable task) throws InterruptedException;
+
+    Runnable getAndRemoveOne(int worker) throws InterruptedException;
+}
@@ -0,0 +1,111 @@
+package ru.ifmo.rain.kokorin.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+Every worker has its own lock-free deque, tasks are spread over the deques in turn.
+A worker takes the oldest task of its own deque, when it is empty, it steals the newest task of another deque.
+A new task unparks one idle worker, only if no worker is searching for tasks already,
+and a worker, which found a task, unparks the next one, so workers are woken up one by one, while there are tasks,
+instead of waking up all of them on every task.
+Deques are not bounded, unlike TaskQueue.
+ */
+class WorkStealingScheduler implements TaskScheduler {
+    private final List<ConcurrentLinkedDeque<Runnable>> deques;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Queue<Thread> idle = new ConcurrentLinkedQueue<>();
+    //Workers, which are not running tasks and are not parked
+    private final AtomicInteger searching = new AtomicInteger();
+
+    WorkStealingScheduler(int workers) {
+        deques = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            deques.add(new ConcurrentLinkedDeque<>());
+        }
+    }
+
+    @Override
+    public void addTask(Runnable task) {
+        deques.get(Math.floorMod(next.getAndIncrement(), deques.size())).addLast(task);
+        if (searching.get() == 0) {
+            wakeOne();
+        }
+    }
+
+    private void wakeOne() {
+        Thread worker = idle.poll();
+        if (worker != null) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private Runnable find(int worker) {
+        Runnable task = deques.get(worker).pollFirst();
+        for (int i = 1; task == null && i < deques.size(); i++) {
+            task = deques.get((worker + i) % deques.size()).pollLast();
+        }
+        return task;
+    }
+
+    private boolean hasTasks() {
+        for (ConcurrentLinkedDeque<Runnable> deque : deques) {
+            if (!deque.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Runnable getAndRemoveOne(int worker) throws InterruptedException {
+        Runnable task = find(worker);
+        if (task == null) {
+            task = await(worker);
+            //Next worker starts searching, if more tasks wait
+            if (searching.get() == 0 && hasTasks()) {
+                wakeOne();
+            }
+        }
+        return task;
+    }
+
+    /*
+    Task is added before searching workers are counted, and a worker checks the deques after it stops searching,
+    so either the new task is found by that check or the worker is still counted and finds it itself.
+     */
+    private Runnable await(int worker) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        searching.incrementAndGet();
+        try {
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                Runnable task = find(worker);
+                if (task != null) {
+                    return task;
+                }
+                idle.add(current);
+                searching.decrementAndGet();
+                task = find(worker);
+                if (task == null) {
+                    LockSupport.park(this);
+                }
+                //Worker is still registered after a spurious wake-up or if it found a task itself
+                idle.remove(current);
+                searching.incrementAndGet();
+                if (task != null) {
+                    return task;
+                }
+            }
+        } finally {
+            searching.decrementAndGet();
+        }
+    }
+}
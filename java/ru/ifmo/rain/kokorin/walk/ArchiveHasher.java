@@ -0,0 +1,377 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/*
+Hashes files inside of archives without extracting them, entry lines have paths <archive>!/<entry>.
+zip and jar files are opened by the zip file system, which reads the central directory,
+so they are read once more after their own hash. tar, tar.gz and tgz files are read by one pass over the stream,
+which gives the hash of the archive itself too.
+Contents of entries are streamed through one buffer, so memory does not depend on sizes of entries.
+If an archive is broken, lines of entries read before the problem are kept and an error line <archive>!/ is added.
+Not thread-safe, every thread should have its own ArchiveHasher.
+ */
+class ArchiveHasher {
+    private static final int BUFFER_SIZE = 1 << 18;
+    private static final int BLOCK = 512;
+
+    private final Hash hash;
+    //Hash of the bytes of a tar archive itself, as they are read for its entries
+    private final Hash archiveHash;
+    private final WalkMetrics metrics;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] header = new byte[BLOCK];
+
+    ArchiveHasher(HashAlgorithm algorithm, WalkMetrics metrics) {
+        hash = algorithm.create();
+        archiveHash = algorithm.create();
+        this.metrics = metrics;
+    }
+
+    //Passes all bytes, which are read or skipped, to archiveHash, does not close the file
+    private class HashingInputStream extends FilterInputStream {
+        private final byte[] skipped = new byte[BLOCK];
+
+        HashingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = in.read();
+            if (result >= 0) {
+                skipped[0] = (byte) result;
+                archiveHash.update(ByteBuffer.wrap(skipped, 0, 1));
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = in.read(bytes, offset, length);
+            if (read > 0) {
+                archiveHash.update(ByteBuffer.wrap(bytes, offset, read));
+            }
+            return read;
+        }
+
+        //Skipped bytes are hashed too, so they are read
+        @Override
+        public long skip(long bytes) throws IOException {
+            int read = read(skipped, 0, (int) Math.min(skipped.length, bytes));
+            return Math.max(read, 0);
+        }
+
+        //Reads the rest of the file after the end of the archive
+        void drain() throws IOException {
+            while (read(buffer, 0, buffer.length) >= 0) {
+            }
+        }
+
+        //File is drained after the streams of the archive are closed
+        @Override
+        public void close() {
+        }
+    }
+
+    private static boolean isZip(String name) {
+        return name.endsWith(".zip") || name.endsWith(".jar");
+    }
+
+    private static boolean isTar(String name) {
+        return name.endsWith(".tar") || isGzippedTar(name);
+    }
+
+    private static boolean isGzippedTar(String name) {
+        return name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+    private static String name(Path file) {
+        Path fileName = file.getFileName();
+        return fileName == null ? "" : fileName.toString().toLowerCase(Locale.ROOT);
+    }
+
+    static boolean isArchive(Path file) {
+        String name = name(file);
+        return isZip(name) || isTar(name);
+    }
+
+    //Archives, which are hashed together with their entries by hashWithEntries()
+    static boolean isStreamed(Path file) {
+        return isTar(name(file));
+    }
+
+    /*
+    Hash of the tar archive itself, lines of its entries are added to entries.
+    Broken archive gives an error line, as in entries(), exception means, that the file itself cannot be read.
+     */
+    byte[] hashWithEntries(Path archive, List<WalkResult> entries) throws IOException {
+        archiveHash.reset();
+        try (InputStream raw = Files.newInputStream(archive)) {
+            HashingInputStream file = new HashingInputStream(raw);
+            try (DataInputStream in = tarStream(file, isGzippedTar(name(archive)))) {
+                tarEntries(archive, in, entries);
+            } catch (IOException | RuntimeException e) {
+                //Parser of a hostile archive may fail in an unexpected way, it breaks only this archive
+                metrics.error();
+                entries.add(new WalkResult(null, archive + "!/"));
+            }
+            //Padding after the end of the archive and the trailer of gzip are a part of the file
+            file.drain();
+        }
+        byte[] result = new byte[archiveHash.length()];
+        archiveHash.digest(result);
+        return result;
+    }
+
+    //Lines of regular files in the archive
+    List<WalkResult> entries(Path archive) {
+        List<WalkResult> entries = new ArrayList<>();
+        String name = name(archive);
+        try {
+            if (isZip(name)) {
+                zipEntries(archive, entries);
+            } else {
+                try (InputStream file = Files.newInputStream(archive);
+                     DataInputStream in = tarStream(file, isGzippedTar(name))) {
+                    tarEntries(archive, in, entries);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            //ProviderNotFoundException, if the zip file system is missing, or a failure of the parser
+            metrics.error();
+            entries.add(new WalkResult(null, archive + "!/"));
+        }
+        return entries;
+    }
+
+    //Hashes the stream till its end or till length bytes are read
+    private byte[] hash(InputStream in, long length) throws IOException {
+        hash.reset();
+        long left = length;
+        while (left > 0) {
+            long start = metrics.now();
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+            long end = metrics.now();
+            metrics.read.record(end - start);
+            if (read < 0) {
+                if (length == Long.MAX_VALUE) {
+                    break;
+                }
+                throw new EOFException("Archive entry is truncated");
+            }
+            hash.update(ByteBuffer.wrap(buffer, 0, read));
+            metrics.hash.record(metrics.now() - end);
+            left -= read;
+        }
+        byte[] result = new byte[hash.length()];
+        hash.digest(result);
+        return result;
+    }
+
+    private void zipEntries(Path archive, List<WalkResult> entries) throws IOException {
+        try (FileSystem zip = FileSystems.newFileSystem(archive, (ClassLoader) null)) {
+            for (Path root : zip.getRootDirectories()) {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attr) {
+                        //Paths of the zip file system are absolute, so they start with /
+                        String path = archive + "!" + file;
+                        try (InputStream in = Files.newInputStream(file)) {
+                            entries.add(new WalkResult(hash(in, Long.MAX_VALUE), path));
+                        } catch (IOException e) {
+                            metrics.error();
+                            entries.add(new WalkResult(null, path));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        }
+    }
+
+    private static DataInputStream tarStream(InputStream file, boolean gzipped) throws IOException {
+        return new DataInputStream(gzipped ? new GZIPInputStream(file, 1 << 16) : new BufferedInputStream(file, 1 << 16));
+    }
+
+    /*
+    Reads ustar headers with GNU long names (type L) and pax paths (type x), data of other entries is skipped.
+    Archive ends with a zero block or with the end of the stream.
+     */
+    private void tarEntries(Path archive, DataInputStream in, List<WalkResult> entries) throws IOException {
+        String longName = null;
+        while (true) {
+            int first = in.read();
+            if (first < 0) {
+                return;
+            }
+            header[0] = (byte) first;
+            in.readFully(header, 1, BLOCK - 1);
+            if (isZeroBlock()) {
+                return;
+            }
+            checkHeader();
+            long size = size();
+            char type = (char) header[156];
+            String name = longName != null ? longName : headerName();
+            longName = null;
+            if (type == 'L') {
+                longName = cString(read(in, size), 0, (int) size);
+            } else if (type == 'x') {
+                longName = paxPath(read(in, size));
+            } else if (type == '0' || type == '\0' || type == '7') {
+                String path = archive + "!/" + entryName(name);
+                entries.add(new WalkResult(hash(in, size), path));
+            } else {
+                skip(in, size);
+            }
+            skip(in, (BLOCK - size % BLOCK) % BLOCK);
+        }
+    }
+
+    //Names of entries are often relative to ./ or absolute
+    private static String entryName(String name) {
+        while (name.startsWith("./") || name.startsWith("/")) {
+            name = name.substring(name.indexOf('/') + 1);
+        }
+        return name;
+    }
+
+    private boolean isZeroBlock() {
+        for (byte b : header) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Checksum is the sum of unsigned bytes of the header with the checksum field counted as spaces
+    private void checkHeader() throws IOException {
+        long sum = 0;
+        for (int i = 0; i < BLOCK; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+        }
+        if (sum != octal(148, 8)) {
+            throw new IOException("Not a tar header");
+        }
+    }
+
+    private long octal(int offset, int length) {
+        long value = 0;
+        int i = offset;
+        while (i < offset + length && (header[i] == ' ' || header[i] == 0)) {
+            i++;
+        }
+        for (; i < offset + length && header[i] >= '0' && header[i] <= '7'; i++) {
+            value = value * 8 + header[i] - '0';
+        }
+        return value;
+    }
+
+    //Large sizes are stored in base-256 with the high bit of the first byte set
+    private long size() throws IOException {
+        long size;
+        if ((header[124] & 0x80) != 0) {
+            size = header[124] & 0x7f;
+            for (int i = 125; i < 136; i++) {
+                size = (size << 8) | (header[i] & 0xff);
+            }
+        } else {
+            size = octal(124, 12);
+        }
+        if (size < 0) {
+            throw new IOException("Wrong size of a tar entry");
+        }
+        return size;
+    }
+
+    private String headerName() {
+        String name = cString(header, 0, 100);
+        //ustar keeps the beginning of long names in the prefix field
+        if (new String(header, 257, 5, StandardCharsets.US_ASCII).equals("ustar")) {
+            String prefix = cString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String cString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    //Records are "<length> <key>=<value>\n", returns the value of path or null, malformed records break the archive
+    private static String paxPath(byte[] data) throws IOException {
+        int position = 0;
+        while (position < data.length) {
+            int space = position;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, position, space - position, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new IOException("Wrong length of a pax record");
+            }
+            //Length counts the digits, the space and the line feed at the end
+            if (space == position || length <= 0 || length > data.length - position
+                    || space + 1 >= position + length || data[position + length - 1] != '\n') {
+                throw new IOException("Malformed pax record");
+            }
+            String record = new String(data, space + 1, position + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith("path=")) {
+                return record.substring("path=".length());
+            }
+            position += length;
+        }
+        return null;
+    }
+
+    //Extended headers are small, larger ones are treated as a broken archive
+    private static byte[] read(DataInputStream in, long size) throws IOException {
+        if (size > BUFFER_SIZE) {
+            throw new IOException("Tar extended header is too large");
+        }
+        byte[] data = new byte[(int) size];
+        in.readFully(data);
+        return data;
+    }
+
+    private static void skip(InputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Archive entry is truncated");
+                }
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+Hashes a file and splits it into content-defined chunks with Gear rolling hash:
+chunk ends after a byte, where (gear & MASK) == 0, if it is at least MIN_CHUNK long, or when it is MAX_CHUNK long.
+Gear hash after a byte depends only on the last 64 bytes, so chunk boundaries move together with the content
+and only chunks around a change differ between versions of a file.
+
+Small files are hashed and chunked in one sequential pass.
+In large files, boundary candidates are searched in parallel by segments, then chunks are chosen sequentially
+and hashed in parallel, while the calling thread computes the hash of the whole file.
+Not thread-safe, every thread should have its own ChunkHasher.
+ */
+class ChunkHasher {
+    private static final int MIN_CHUNK = 1 << 14;
+    private static final int MAX_CHUNK = 1 << 18;
+    //Average chunk is MIN_CHUNK + 64 KB long
+    private static final long MASK = (1L << 16) - 1;
+    private static final long PARALLEL_THRESHOLD = 1L << 26;
+    private static final int SEGMENT = 1 << 24;
+    private static final int BUFFER_SIZE = 1 << 18;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        //Fixed table, so chunks of the same content are the same in all runs
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < GEAR.length; i++) {
+            //SplitMix64
+            long z = (seed += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    static class Chunk {
+        final long offset;
+        final int length;
+        final byte[] hash;
+
+        Chunk(long offset, int length, byte[] hash) {
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    private final HashAlgorithm algorithm;
+    private final ForkJoinPool pool;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Hash fileHash;
+    private final Hash chunkHash;
+    private final byte[] digest;
+    private List<Chunk> chunks;
+
+    ChunkHasher(HashAlgorithm algorithm, ForkJoinPool pool) {
+        this.algorithm = algorithm;
+        this.pool = pool;
+        fileHash = algorithm.create();
+        chunkHash = algorithm.create();
+        digest = new byte[fileHash.length()];
+    }
+
+    //Results are in digest() and chunks() till the next call
+    void hash(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() >= PARALLEL_THRESHOLD) {
+                hashInParallel(channel, channel.size());
+            } else {
+                hashSequentially(channel);
+            }
+        }
+    }
+
+    byte[] digest() {
+        return digest;
+    }
+
+    List<Chunk> chunks() {
+        return chunks;
+    }
+
+    private Chunk chunk(long offset, long end, Hash hash) {
+        byte[] result = new byte[hash.length()];
+        hash.digest(result);
+        hash.reset();
+        return new Chunk(offset, (int) (end - offset), result);
+    }
+
+    private void hashSequentially(FileChannel channel) throws IOException {
+        fileHash.reset();
+        chunkHash.reset();
+        chunks = new ArrayList<>();
+        long gear = 0;
+        long chunkStart = 0;
+        //Offset of the beginning of the buffer in the file
+        long position = 0;
+        buffer.clear();
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            int end = buffer.limit();
+            fileHash.update(buffer);
+            buffer.position(0);
+            int sliceStart = 0;
+            for (int i = 0; i < end; i++) {
+                gear = (gear << 1) + GEAR[buffer.get(i) & 0xff];
+                long length = position + i + 1 - chunkStart;
+                if (length >= MIN_CHUNK && (gear & MASK) == 0 || length == MAX_CHUNK) {
+                    buffer.limit(i + 1).position(sliceStart);
+                    chunkHash.update(buffer);
+                    buffer.limit(end);
+                    chunks.add(chunk(chunkStart, position + i + 1, chunkHash));
+                    chunkStart = position + i + 1;
+                    sliceStart = i + 1;
+                }
+            }
+            buffer.position(sliceStart);
+            chunkHash.update(buffer);
+            position += end;
+            buffer.clear();
+        }
+        if (chunkStart < position) {
+            chunks.add(chunk(chunkStart, position, chunkHash));
+        }
+        fileHash.digest(digest);
+    }
+
+    private void hashInParallel(FileChannel channel, long size) throws IOException {
+        Future<List<Chunk>> result = pool.submit(() -> chunksInParallel(channel, size));
+        //Positional reads of a FileChannel may go concurrently with reads of the pool
+        fileHash.reset();
+        buffer.clear();
+        for (long position = 0; position < size; ) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            fileHash.update(buffer);
+            buffer.clear();
+            position += read;
+        }
+        fileHash.digest(digest);
+        try {
+            chunks = result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while chunking", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    //Runs in the pool, so parallel streams use its threads
+    private List<Chunk> chunksInParallel(FileChannel channel, long size) {
+        int segments = (int) ((size + SEGMENT - 1) / SEGMENT);
+        List<long[]> candidates = IntStream.range(0, segments).parallel()
+                .mapToObj(segment -> candidates(channel, (long) segment * SEGMENT,
+                        Math.min(size, (long) (segment + 1) * SEGMENT)))
+                .collect(Collectors.toList());
+
+        //Same rules as in the sequential pass, boundaries are ends of chunks
+        List<long[]> bounds = new ArrayList<>();
+        long chunkStart = 0;
+        for (long[] segment : candidates) {
+            for (long end : segment) {
+                while (end - chunkStart > MAX_CHUNK) {
+                    bounds.add(new long[]{chunkStart, chunkStart + MAX_CHUNK});
+                    chunkStart += MAX_CHUNK;
+                }
+                if (end - chunkStart >= MIN_CHUNK) {
+                    bounds.add(new long[]{chunkStart, end});
+                    chunkStart = end;
+                }
+            }
+        }
+        while (size - chunkStart > MAX_CHUNK) {
+            bounds.add(new long[]{chunkStart, chunkStart + MAX_CHUNK});
+            chunkStart += MAX_CHUNK;
+        }
+        if (chunkStart < size) {
+            bounds.add(new long[]{chunkStart, size});
+        }
+
+        return bounds.parallelStream()
+                .map(bound -> hashRange(channel, bound[0], bound[1]))
+                .collect(Collectors.toList());
+    }
+
+    private static ByteBuffer read(FileChannel channel, ByteBuffer buffer, long position) {
+        try {
+            if (channel.read(buffer, position) < 0) {
+                throw new IOException("File was truncated while chunking");
+            }
+            return buffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //Ends of chunks, where gear & MASK == 0, in [from, to), gear is computed from 63 bytes before from
+    private static long[] candidates(FileChannel channel, long from, long to) {
+        ByteBuffer segmentBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long[] result = new long[16];
+        int count = 0;
+        long gear = 0;
+        for (long position = Math.max(0, from - 63); position < to; ) {
+            segmentBuffer.clear().limit((int) Math.min(BUFFER_SIZE, to - position));
+            read(channel, segmentBuffer, position).flip();
+            int end = segmentBuffer.limit();
+            for (int i = 0; i < end; i++) {
+                gear = (gear << 1) + GEAR[segmentBuffer.get(i) & 0xff];
+                if ((gear & MASK) == 0 && position + i >= from) {
+                    if (count == result.length) {
+                        result = Arrays.copyOf(result, count * 2);
+                    }
+                    result[count++] = position + i + 1;
+                }
+            }
+            position += end;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private Chunk hashRange(FileChannel channel, long from, long to) {
+        Hash hash = algorithm.create();
+        ByteBuffer rangeBuffer = ByteBuffer.allocate((int) (to - from));
+        while (rangeBuffer.hasRemaining()) {
+            read(channel, rangeBuffer, from + rangeBuffer.position());
+        }
+        rangeBuffer.flip();
+        hash.update(rangeBuffer);
+        return chunk(from, to, hash);
+    }
+}
@@ -0,0 +1,33 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+//CRC32C of the JDK uses hardware instructions, where they are available
+class Crc32cHash implements Hash {
+    private final CRC32C crc = new CRC32C();
+
+    @Override
+    public void reset() {
+        crc.reset();
+    }
+
+    @Override
+    public void update(ByteBuffer data) {
+        crc.update(data);
+    }
+
+    @Override
+    public int length() {
+        return Integer.BYTES;
+    }
+
+    @Override
+    public void digest(byte[] out) {
+        int value = (int) crc.getValue();
+        out[0] = (byte) (value >>> 24);
+        out[1] = (byte) (value >>> 16);
+        out[2] = (byte) (value >>> 8);
+        out[3] = (byte) value;
+    }
+}
@@ -0,0 +1,293 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/*
+Finds groups of files with the same content.
+Traversal only collects sizes, then files are read only in buckets of at least two files of the same size:
+two files are compared block by block until the first difference,
+more files are split by the hash of their first and last PARTIAL bytes and then by the hash of the whole content.
+Hashes only split files, which differ: files with equal hashes are still compared byte by byte to the first file
+of their group before they are reported, so a collision of a weak hash never makes a false group.
+Empty files and extra hard links of the same file (same file key) are skipped, they waste no space.
+ */
+class DuplicateFinder {
+    private static final int PARTIAL = 1 << 16;
+    private static final int COMPARE_BLOCK = 1 << 16;
+
+    private static class Group {
+        final long size;
+        final List<Path> files;
+
+        Group(long size, List<Path> files) {
+            this.size = size;
+            this.files = files;
+        }
+
+        long wasted() {
+            return size * (files.size() - 1);
+        }
+    }
+
+    //Buffers and hashers of a thread
+    private class Reader {
+        final ByteBuffer first = ByteBuffer.allocateDirect(COMPARE_BLOCK);
+        final ByteBuffer second = ByteBuffer.allocateDirect(COMPARE_BLOCK);
+        final Hash partialHash = algorithm.create();
+        final FileHasher fileHasher = new FileHasher(algorithm.create(), metrics);
+    }
+
+    private final HashAlgorithm algorithm;
+    private final WalkMetrics metrics;
+    private final ThreadLocal<Reader> readers = ThreadLocal.withInitial(Reader::new);
+    //Files of every size in the order of traversal, used only by the traversal thread
+    private final Map<Long, List<Path>> bySize = new HashMap<>();
+    private final Set<Object> fileKeys = new HashSet<>();
+    private final LongAdder bytesRead = new LongAdder();
+    private final AtomicInteger errors = new AtomicInteger();
+    private long totalBytes;
+
+    private final SimpleFileVisitor<Path> collector = new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attr) {
+            if (attr.size() > 0 && (attr.fileKey() == null || fileKeys.add(attr.fileKey()))) {
+                bySize.computeIfAbsent(attr.size(), size -> new ArrayList<>()).add(file);
+                totalBytes += attr.size();
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            error();
+            metrics.failed(file, exc);
+            return FileVisitResult.CONTINUE;
+        }
+    };
+
+    DuplicateFinder(HashAlgorithm algorithm, WalkMetrics metrics) {
+        this.algorithm = algorithm;
+        this.metrics = metrics;
+    }
+
+    void add(Path root) throws IOException {
+        Files.walkFileTree(root, collector);
+    }
+
+    //File or root, which could not be read
+    void error() {
+        errors.incrementAndGet();
+        metrics.error();
+    }
+
+    //Groups of equal files, the most wasteful first, pool is used for sizes with several files, if it is not null
+    private List<Group> find(ForkJoinPool pool) throws IOException {
+        List<Map.Entry<Long, List<Path>>> candidates = bySize.entrySet().stream()
+                .filter(entry -> entry.getValue().size() > 1)
+                .collect(Collectors.toList());
+        List<Group> groups;
+        if (pool == null) {
+            groups = candidates.stream().flatMap(entry -> split(entry.getKey(), entry.getValue()).stream())
+                    .collect(Collectors.toList());
+        } else {
+            try {
+                //Parallel stream, started from the pool, runs in the threads of the pool
+                groups = pool.submit(() -> candidates.parallelStream()
+                        .flatMap(entry -> split(entry.getKey(), entry.getValue()).stream())
+                        .collect(Collectors.toList())).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while searching for duplicates", e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+        groups.sort((a, b) -> a.wasted() != b.wasted() ? Long.compare(b.wasted(), a.wasted())
+                : a.files.get(0).toString().compareTo(b.files.get(0).toString()));
+        return groups;
+    }
+
+    private List<Group> split(long size, List<Path> files) {
+        if (files.size() == 2) {
+            return equal(files.get(0), files.get(1)) ? Collections.singletonList(new Group(size, files))
+                    : Collections.emptyList();
+        }
+        if (size <= 2 * PARTIAL) {
+            //Partial hash would read the whole file anyway
+            return fullSplit(size, files);
+        }
+        List<Group> result = new ArrayList<>();
+        for (List<Path> sameStart : partition(files, this::partialHash)) {
+            if (sameStart.size() == 2) {
+                result.addAll(split(size, sameStart));
+            } else {
+                result.addAll(fullSplit(size, sameStart));
+            }
+        }
+        return result;
+    }
+
+    private List<Group> fullSplit(long size, List<Path> files) {
+        List<Group> result = new ArrayList<>();
+        for (List<Path> sameHash : partition(files, this::fullHash)) {
+            result.addAll(confirm(size, sameHash));
+        }
+        return result;
+    }
+
+    //Groups of files, which are equal byte by byte, files with the same hash are usually all equal to the first one
+    private List<Group> confirm(long size, List<Path> files) {
+        List<Group> result = new ArrayList<>();
+        List<Path> rest = files;
+        while (rest.size() > 1) {
+            Path first = rest.get(0);
+            List<Path> same = new ArrayList<>();
+            List<Path> other = new ArrayList<>();
+            same.add(first);
+            for (Path file : rest.subList(1, rest.size())) {
+                (equal(first, file) ? same : other).add(file);
+            }
+            if (same.size() > 1) {
+                result.add(new Group(size, same));
+            }
+            rest = other;
+        }
+        return result;
+    }
+
+    private interface Hasher {
+        byte[] hash(Path file) throws IOException;
+    }
+
+    //Parts of at least two files with the same hash, in the order of traversal, unreadable files are left out
+    private List<List<Path>> partition(List<Path> files, Hasher hasher) {
+        Map<ByteBuffer, List<Path>> byHash = new LinkedHashMap<>();
+        for (Path file : files) {
+            try {
+                byHash.computeIfAbsent(ByteBuffer.wrap(hasher.hash(file)), hash -> new ArrayList<>()).add(file);
+            } catch (IOException e) {
+                error();
+            }
+        }
+        return byHash.values().stream().filter(part -> part.size() > 1).collect(Collectors.toList());
+    }
+
+    //Reads the buffer from the position till the end of the file or the end of the buffer
+    private int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        bytesRead.add(total);
+        return total;
+    }
+
+    private byte[] partialHash(Path file) throws IOException {
+        long start = metrics.now();
+        Reader reader = readers.get();
+        Hash hash = reader.partialHash;
+        hash.reset();
+        try (FileChannel channel = reader.fileHasher.open(file)) {
+            long size = channel.size();
+            //File may be truncated since traversal, then the last part is shorter or empty
+            for (long position : new long[]{0, Math.max(0, size - PARTIAL)}) {
+                reader.first.clear().limit(PARTIAL);
+                readFully(channel, reader.first, position);
+                hash.update(reader.first.flip());
+            }
+            metrics.file(file, 2 * PARTIAL, metrics.now() - start);
+        }
+        byte[] result = new byte[hash.length()];
+        hash.digest(result);
+        return result;
+    }
+
+    private byte[] fullHash(Path file) throws IOException {
+        long start = metrics.now();
+        FileHasher hasher = readers.get().fileHasher;
+        try (FileChannel channel = hasher.open(file)) {
+            hasher.hash(channel);
+            bytesRead.add(channel.size());
+            metrics.file(file, channel.size(), metrics.now() - start);
+        }
+        return hasher.digest().clone();
+    }
+
+    //Compares contents block by block, stops at the first difference, unreadable files are not equal to anything
+    private boolean equal(Path a, Path b) {
+        long start = metrics.now();
+        Reader reader = readers.get();
+        try (FileChannel first = reader.fileHasher.open(a); FileChannel second = reader.fileHasher.open(b)) {
+            long position = 0;
+            try {
+                while (true) {
+                    reader.first.clear();
+                    reader.second.clear();
+                    int read = readFully(first, reader.first, position);
+                    if (read != readFully(second, reader.second, position)) {
+                        return false;
+                    }
+                    if (read == 0) {
+                        return true;
+                    }
+                    if (!reader.first.flip().equals(reader.second.flip())) {
+                        return false;
+                    }
+                    position += read;
+                }
+            } finally {
+                metrics.file(a, position, metrics.now() - start);
+            }
+        } catch (IOException e) {
+            error();
+            return false;
+        }
+    }
+
+    /*
+    Writes groups, separated by empty lines: header "# <number of files> x <size> bytes, <wasted bytes> wasted",
+    then paths of the files, the last line is the summary.
+     */
+    void write(Writer writer, ForkJoinPool pool) throws IOException {
+        List<Group> groups = find(pool);
+        long wasted = 0;
+        int duplicates = 0;
+        for (Group group : groups) {
+            writer.write(String.format("# %d x %d bytes, %d wasted%n", group.files.size(), group.size, group.wasted()));
+            for (Path file : group.files) {
+                writer.write(file.toString());
+                writer.write(System.lineSeparator());
+            }
+            writer.write(System.lineSeparator());
+            wasted += group.wasted();
+            duplicates += group.files.size() - 1;
+        }
+        writer.write(String.format("# %d groups, %d duplicate files, %d bytes wasted, %d of %d bytes read, "
+                + "%d unreadable%n", groups.size(), duplicates, wasted, bytesRead.sum(), totalBytes, errors.get()));
+    }
+}
@@ -0,0 +1,84 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+Computes hashes of files, strategy depends on the size of the file:
+files from MAP_THRESHOLD to MAP_LIMIT are memory mapped by chunks of MAP_CHUNK bytes,
+other files are read through one direct buffer, reused for all files.
+Mappings are released only by the garbage collector, so larger files are read too:
+a file leaves at most MAP_LIMIT bytes mapped till the next collection.
+Times of opening, reading and hashing are recorded to metrics.
+Not thread-safe, every thread should have its own FileHasher.
+ */
+class FileHasher {
+    private static final int BUFFER_SIZE = 1 << 18;
+    private static final long MAP_THRESHOLD = 1L << 24;
+    private static final long MAP_LIMIT = 1L << 28;
+    private static final long MAP_CHUNK = 1L << 26;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Hash hash;
+    private final byte[] digest;
+    final WalkMetrics metrics;
+
+    FileHasher(Hash hash, WalkMetrics metrics) {
+        this.hash = hash;
+        this.metrics = metrics;
+        digest = new byte[hash.length()];
+    }
+
+    FileChannel open(Path file) throws IOException {
+        long start = metrics.now();
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        metrics.open.record(metrics.now() - start);
+        return channel;
+    }
+
+    //Returns the hash of the file in digest(), which is valid till the next call
+    void hash(Path file) throws IOException {
+        try (FileChannel channel = open(file)) {
+            hash(channel);
+        }
+    }
+
+    //Hashes the rest of the channel from its current position
+    void hash(FileChannel channel) throws IOException {
+        hash.reset();
+        long size = channel.size();
+        if (size >= MAP_THRESHOLD && size <= MAP_LIMIT) {
+            for (long position = channel.position(); position < size; position += MAP_CHUNK) {
+                ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_CHUNK, size - position));
+                long start = metrics.now();
+                hash.update(chunk);
+                metrics.hash.record(metrics.now() - start);
+            }
+            //File may grow after its size is taken, the rest is read as usual
+            channel.position(size);
+        }
+        buffer.clear();
+        while (true) {
+            long start = metrics.now();
+            int read = channel.read(buffer);
+            long end = metrics.now();
+            metrics.read.record(end - start);
+            if (read == -1) {
+                break;
+            }
+            buffer.flip();
+            hash.update(buffer);
+            metrics.hash.record(metrics.now() - end);
+            buffer.clear();
+        }
+        hash.digest(digest);
+    }
+
+    byte[] digest() {
+        return digest;
+    }
+}
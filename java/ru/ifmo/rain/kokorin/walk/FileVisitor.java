@@ -1,60 +1,128 @@
 package ru.ifmo.rain.kokorin.walk;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 import static java.nio.file.FileVisitResult.CONTINUE;
 import static java.nio.file.FileVisitResult.TERMINATE;
 
 class FileVisitor extends SimpleFileVisitor<Path> {
-    private final BufferedWriter outputFile;
-    private static final int START_VALUE = 0x811c9dc5;
-    private static final int MULTIPLIER = 0x01000193;
-    private static final int BUFFER_LEN = 1024;
+    private final ResultWriter outputFile;
+    //Files may be hashed by several threads, every thread reuses its own buffer and hash state
+    private final ThreadLocal<FileHasher> hasher;
+    //Hashes from previous runs, null, if they are not used
+    private final HashCache cache;
+    //Splits files into chunks, null, if chunks are not needed
+    private final ThreadLocal<ChunkHasher> chunker;
+    private final WalkMetrics metrics;
+    //Hashes entries of archives, null, if archives are hashed as usual files only
+    private final ThreadLocal<ArchiveHasher> archives;
+    //Times of entering the directories on the current path, used only by the traversal thread
+    private final Deque<Long> directoryStarts = new ArrayDeque<>();
 
+    FileVisitor(ResultWriter writer, Supplier<FileHasher> hasherFactory, HashCache cache, WalkMetrics metrics,
+                Supplier<ArchiveHasher> archiveFactory) {
+        outputFile = writer;
+        this.cache = cache;
+        this.metrics = metrics;
+        archives = archiveFactory == null ? null : ThreadLocal.withInitial(archiveFactory);
+        hasher = ThreadLocal.withInitial(hasherFactory);
+        chunker = null;
+    }
 
-    FileVisitor(BufferedWriter writer) {
+    //Large files are split into chunks by the threads of chunkPool
+    FileVisitor(ResultWriter writer, HashAlgorithm algorithm, ForkJoinPool chunkPool, WalkMetrics metrics) {
         outputFile = writer;
+        this.metrics = metrics;
+        archives = null;
+        cache = null;
+        hasher = null;
+        chunker = ThreadLocal.withInitial(() -> new ChunkHasher(algorithm, chunkPool));
     }
 
-    private FileVisitResult writeToFile(String result) {
+    private WalkResult hash(Path file, BasicFileAttributes attr) {
+        long start = metrics.now();
         try {
-            outputFile.write(result);
-            outputFile.newLine();
-            return CONTINUE;
-        } catch (IOException e) {
-            return TERMINATE;
+            if (chunker != null) {
+                ChunkHasher chunkHasher = chunker.get();
+                chunkHasher.hash(file);
+                metrics.file(file, attr.size(), metrics.now() - start);
+                return new WalkResult(chunkHasher.digest().clone(), file.toString(), chunkHasher.chunks());
+            }
+            byte[] cached = cache == null ? null : cache.get(file, attr);
+            if (cached != null) {
+                metrics.cachedFile();
+                return withEntries(file, new WalkResult(cached, file.toString()));
+            }
+            if (archives != null && ArchiveHasher.isStreamed(file)) {
+                //Archive and its entries are hashed in one pass over the file
+                List<WalkResult> entries = new ArrayList<>();
+                byte[] hash = archives.get().hashWithEntries(file, entries);
+                if (cache != null) {
+                    cache.put(file, attr, hash);
+                }
+                metrics.file(file, attr.size(), metrics.now() - start);
+                return new WalkResult(hash, file.toString(), null, entries);
+            }
+            FileHasher fileHasher = hasher.get();
+            fileHasher.hash(file);
+            if (cache != null) {
+                cache.put(file, attr, fileHasher.digest());
+            }
+            metrics.file(file, attr.size(), metrics.now() - start);
+            //Digest of the hasher is reused for the next file, while the line may wait in the queue
+            return withEntries(file, new WalkResult(fileHasher.digest().clone(), file.toString()));
+        } catch (IOException | RuntimeException e) {
+            //Unexpected failure of a hasher or a parser is an error of this file only, the walk goes on
+            return error(file.toString());
         }
     }
 
+    //Archive is read once more for its entries: zip files, and archives, whose own hash comes from the cache
+    private WalkResult withEntries(Path file, WalkResult result) {
+        if (archives == null || !ArchiveHasher.isArchive(file)) {
+            return result;
+        }
+        return new WalkResult(result.hash, result.path, null, archives.get().entries(file));
+    }
+
+    WalkResult error(String file) {
+        metrics.error();
+        return new WalkResult(null, file);
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        directoryStarts.push(metrics.now());
+        return CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        metrics.directory.record(metrics.now() - directoryStarts.pop());
+        //Same as SimpleFileVisitor: failure of iteration over the directory stops the walk from this root
+        return super.postVisitDirectory(dir, exc);
+    }
+
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attr) {
-        try (InputStream reader = Files.newInputStream(file)) {
-            int h = START_VALUE;
-            byte[] buffer = new byte[BUFFER_LEN];
-            int result;
-            while ((result = reader.read(buffer)) != -1) {
-                for (int i = 0; i < result; i++) {
-                    h *= MULTIPLIER;
-                    h ^= buffer[i] & 0xff;
-                }
-            }
-            return writeToFile(String.format("%08x %s", h, file));
-        } catch (IOException e) {
-            return writeToFile("00000000 " + file.toString());
-        }
+        //File is hashed by the writer, maybe in another thread
+        return outputFile.write(() -> hash(file, attr)) ? CONTINUE : TERMINATE;
     }
 
     @Override
     public FileVisitResult visitFileFailed(Path file,
                                            IOException exc) {
-        return writeToFile("00000000 " + file.toString());
+        metrics.failed(file, exc);
+        return outputFile.write(() -> error(file.toString())) ? CONTINUE : TERMINATE;
     }
 }
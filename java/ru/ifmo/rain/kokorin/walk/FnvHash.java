@@ -0,0 +1,57 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+class FnvHash implements Hash {
+    private static final int START_VALUE = 0x811c9dc5;
+    private static final int MULTIPLIER = 0x01000193;
+
+    private int h = START_VALUE;
+
+    @Override
+    public void reset() {
+        h = START_VALUE;
+    }
+
+    //8 bytes are taken from data at once, but hashed one by one
+    @Override
+    public void update(ByteBuffer data) {
+        int h = this.h;
+        int i = data.position();
+        int end = data.limit();
+        //Bytes of a long are taken from the highest one, so the order is the same as in data
+        ByteOrder order = data.order();
+        data.order(ByteOrder.BIG_ENDIAN);
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            long value = data.getLong(i);
+            h = (h * MULTIPLIER) ^ (int) (value >>> 56);
+            h = (h * MULTIPLIER) ^ (int) (value >>> 48) & 0xff;
+            h = (h * MULTIPLIER) ^ (int) (value >>> 40) & 0xff;
+            h = (h * MULTIPLIER) ^ (int) (value >>> 32) & 0xff;
+            h = (h * MULTIPLIER) ^ (int) (value >>> 24) & 0xff;
+            h = (h * MULTIPLIER) ^ (int) (value >>> 16) & 0xff;
+            h = (h * MULTIPLIER) ^ (int) (value >>> 8) & 0xff;
+            h = (h * MULTIPLIER) ^ (int) value & 0xff;
+        }
+        for (; i < end; i++) {
+            h = (h * MULTIPLIER) ^ data.get(i) & 0xff;
+        }
+        data.order(order);
+        data.position(end);
+        this.h = h;
+    }
+
+    @Override
+    public int length() {
+        return Integer.BYTES;
+    }
+
+    @Override
+    public void digest(byte[] out) {
+        out[0] = (byte) (h >>> 24);
+        out[1] = (byte) (h >>> 16);
+        out[2] = (byte) (h >>> 8);
+        out[3] = (byte) h;
+    }
+}
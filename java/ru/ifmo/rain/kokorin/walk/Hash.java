@@ -0,0 +1,17 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.nio.ByteBuffer;
+
+//State of a streaming hash computation, reused for many files after reset()
+interface Hash {
+    void reset();
+
+    //Consumes all remaining bytes of data, without allocations
+    void update(ByteBuffer data);
+
+    //Length of the hash in bytes
+    int length();
+
+    //Writes the hash of all bytes since the last reset() to out[0, length()), big-endian
+    void digest(byte[] out);
+}
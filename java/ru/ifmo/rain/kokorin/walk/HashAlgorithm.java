@@ -0,0 +1,33 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.util.function.Supplier;
+
+//Hash functions, available for --hash option
+enum HashAlgorithm {
+    //Default, the same hashes as before the option appeared
+    FNV1A32("fnv1a32", FnvHash::new),
+    XXHASH64("xxhash64", XxHash64::new),
+    CRC32C("crc32c", Crc32cHash::new),
+    SHA256("sha256", Sha256Hash::new);
+
+    private final String name;
+    private final Supplier<Hash> factory;
+
+    HashAlgorithm(String name, Supplier<Hash> factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    Hash create() {
+        return factory.get();
+    }
+
+    static HashAlgorithm forName(String name) {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.name.equals(name)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash algorithm " + name);
+    }
+}
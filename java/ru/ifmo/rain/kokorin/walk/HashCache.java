@@ -0,0 +1,218 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+Hashes of files from previous runs, file is not read again, if its size, modification time and file key
+(inode on Unix) are the same.
+The cache file is an append-only log: MAGIC (int), VERSION (int), name of the way of hashing (UTF), then records
+(length of path, path in UTF-8, size, modification time in nanoseconds, length of file key, file key in UTF-8, hash).
+Later records replace earlier ones for the same path. When the log is much longer than the number of paths,
+it is rewritten on close() with one record per path.
+If the log has a broken tail, for example after a crash in the middle of a record, records before it are kept
+and the log is rewritten with them at once. A log of another scheme or version is started afresh.
+ */
+class HashCache {
+    private static final int MAGIC = 0x57434143;
+    private static final int VERSION = 1;
+    //Log is compacted, when it has more than COMPACTION_FACTOR records per path
+    private static final int COMPACTION_FACTOR = 2;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+    //Paths and file keys are much shorter, a longer length is a broken record, not a reason to allocate memory
+    private static final int MAX_STRING_LENGTH = 1 << 16;
+    /*
+    File may change right after it is hashed without changing its modification time,
+    if the file system has coarse timestamps, so hashes of recently modified files are not stored
+     */
+    private static final long RACY_INTERVAL = TimeUnit.SECONDS.toNanos(2);
+
+    private static class Entry {
+        final long size;
+        final long modified;
+        final String fileKey;
+        final byte[] hash;
+
+        Entry(long size, long modified, String fileKey, byte[] hash) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.hash = hash;
+        }
+    }
+
+    private final Path file;
+    //Hash algorithm and mode, hashes of another scheme are not used
+    private final String scheme;
+    private final int hashLength;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long startTime = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    private DataOutputStream log;
+    private int records;
+    private IOException writeError;
+
+    private HashCache(Path file, String scheme, int hashLength) {
+        this.file = file;
+        this.scheme = scheme;
+        this.hashLength = hashLength;
+    }
+
+    static HashCache open(Path file, String scheme, int hashLength) throws IOException {
+        HashCache cache = new HashCache(file, scheme, hashLength);
+        if (cache.load()) {
+            cache.log = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(file, StandardOpenOption.APPEND)));
+        } else {
+            //Missing file, file of another scheme or file with a broken tail, entries read before the tail are kept
+            cache.rewrite();
+        }
+        return cache;
+    }
+
+    /*
+    Returns true, if the whole file was read and new records can be appended to it,
+    records before a broken tail are loaded anyway
+     */
+    private boolean load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(scheme)) {
+                return false;
+            }
+            while (true) {
+                int pathLength;
+                try {
+                    pathLength = in.readInt();
+                } catch (EOFException e) {
+                    return true;
+                }
+                String path = readString(in, pathLength);
+                long size = in.readLong();
+                long modified = in.readLong();
+                String fileKey = readString(in, in.readInt());
+                byte[] hash = new byte[hashLength];
+                in.readFully(hash);
+                entries.put(path, new Entry(size, modified, fileKey, hash));
+                records++;
+            }
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new EOFException("Broken record");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeRecord(DataOutputStream out, String path, Entry entry) throws IOException {
+        writeString(out, path);
+        out.writeLong(entry.size);
+        out.writeLong(entry.modified);
+        writeString(out, entry.fileKey);
+        out.write(entry.hash);
+    }
+
+    //Writes one record per path to a new file, which replaces the log
+    private void rewrite() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(scheme);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue());
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = entries.size();
+        log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND)));
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static long modified(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private static String fileKey(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        return fileKey == null ? "" : fileKey.toString();
+    }
+
+    //Returns the hash from a previous run or null, if the file may have changed since then
+    byte[] get(Path file, BasicFileAttributes attributes) {
+        Entry entry = entries.get(key(file));
+        if (entry == null || entry.size != attributes.size() || entry.modified != modified(attributes)
+                || !entry.fileKey.equals(fileKey(attributes))) {
+            return null;
+        }
+        return entry.hash;
+    }
+
+    //Called by hashing threads, hash is copied
+    void put(Path file, BasicFileAttributes attributes, byte[] hash) {
+        long modified = modified(attributes);
+        if (modified > startTime - RACY_INTERVAL) {
+            return;
+        }
+        String path = key(file);
+        Entry entry = new Entry(attributes.size(), modified, fileKey(attributes), hash.clone());
+        entries.put(path, entry);
+        synchronized (this) {
+            if (writeError != null) {
+                return;
+            }
+            try {
+                writeRecord(log, path, entry);
+                records++;
+            } catch (IOException e) {
+                writeError = e;
+            }
+        }
+    }
+
+    //Compacts the log, if needed, throws the first error of writing the log
+    synchronized void close() throws IOException {
+        try {
+            if (writeError != null) {
+                throw writeError;
+            }
+            if (records > MIN_COMPACTION_RECORDS && records > COMPACTION_FACTOR * entries.size()) {
+                rewrite();
+            }
+        } finally {
+            log.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Latencies in nanoseconds by powers of two, bucket i holds latencies in [2^(i - 1), 2^i), thread-safe.
+Every bucket is a LongAdder, so threads, recording similar latencies, do not contend on one counter.
+ */
+class LatencyHistogram {
+    //Records nothing, used, when metrics are off
+    static final LatencyHistogram DISABLED = new LatencyHistogram() {
+        @Override
+        void record(long nanos) {
+        }
+    };
+
+    private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+    private final LongAdder total = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        buckets[Long.SIZE - Long.numberOfLeadingZeros(Math.max(nanos, 0))].increment();
+        total.add(nanos);
+    }
+
+    //Getters are the attributes of the composite JMX value
+    public static class Snapshot {
+        private final long count;
+        private final long meanNanos;
+        private final long p50Nanos;
+        private final long p99Nanos;
+        private final long maxNanos;
+
+        Snapshot(long count, long meanNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+            this.count = count;
+            this.meanNanos = meanNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanNanos() {
+            return meanNanos;
+        }
+
+        //Percentiles and maximum are upper bounds of the buckets
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%s p50<%s p99<%s max<%s", count, format(meanNanos),
+                    format(p50Nanos), format(p99Nanos), format(maxNanos));
+        }
+
+        private static String format(long nanos) {
+            if (nanos < 10_000) {
+                return nanos + "ns";
+            }
+            if (nanos < 10_000_000) {
+                return nanos / 1000 + "us";
+            }
+            return nanos / 1_000_000 + "ms";
+        }
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket >= Long.SIZE - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    Snapshot snapshot() {
+        long[] counts = new long[Long.SIZE];
+        long count = 0;
+        int max = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+            if (counts[i] > 0) {
+                max = i;
+            }
+        }
+        if (count == 0) {
+            return new Snapshot(0, 0, 0, 0, 0);
+        }
+        return new Snapshot(count, total.sum() / count, percentile(counts, count, 0.5),
+                percentile(counts, count, 0.99), upperBound(max));
+    }
+
+    private static long percentile(long[] counts, long count, double fraction) {
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= fraction * count) {
+                return upperBound(i);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
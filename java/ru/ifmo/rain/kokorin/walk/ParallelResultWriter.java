@@ -0,0 +1,125 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+Lines are computed by a pool of threads and written by a separate output thread, which takes them from a queue.
+In ordered mode, futures of lines are queued in the order of traversal,
+so the output is the same as the output of SequentialResultWriter.
+In unordered mode, every line is queued as soon as it is ready.
+At most IN_FLIGHT_PER_THREAD lines per thread are computed or wait to be written,
+so traversal of a huge tree does not run far ahead of hashing, and slow output throttles both of them.
+ */
+class ParallelResultWriter implements ResultWriter {
+    private static final int IN_FLIGHT_PER_THREAD = 64;
+    private static final Future<WalkResult> END = CompletableFuture.completedFuture(null);
+
+    private final ResultEncoder encoder;
+    private final WalkMetrics metrics;
+    private final ExecutorService workers;
+    private final boolean ordered;
+    private final BlockingQueue<Future<WalkResult>> pending;
+    private final Semaphore inFlight;
+    private final Thread writerThread;
+    private volatile boolean failed;
+
+    ParallelResultWriter(ResultEncoder encoder, int threads, boolean ordered, WalkMetrics metrics) {
+        this.encoder = encoder;
+        this.metrics = metrics;
+        this.ordered = ordered;
+        workers = Executors.newFixedThreadPool(threads);
+        //Queue never blocks, as there are no more futures than permits
+        pending = new ArrayBlockingQueue<>(threads * IN_FLIGHT_PER_THREAD + 1);
+        inFlight = new Semaphore(threads * IN_FLIGHT_PER_THREAD);
+        writerThread = new Thread(this::writeLines);
+        writerThread.start();
+    }
+
+    private void writeLines() {
+        try {
+            Future<WalkResult> line;
+            while ((line = pending.take()) != END) {
+                try {
+                    WalkResult result = line.get();
+                    //Queue is drained after a failure, so traversal is not blocked on permits
+                    if (!failed) {
+                        long start = metrics.now();
+                        encoder.write(result);
+                        metrics.write.record(metrics.now() - start);
+                    }
+                } catch (ExecutionException | IOException e) {
+                    failed = true;
+                } finally {
+                    inFlight.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            failed = true;
+            Thread.currentThread().interrupt();
+        }
+        //Lines, encoded before a failure, are written anyway
+        try {
+            encoder.flush();
+        } catch (IOException e) {
+            failed = true;
+        }
+    }
+
+    @Override
+    public boolean write(Supplier<WalkResult> line) {
+        if (failed) {
+            return false;
+        }
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            failed = true;
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        CompletableFuture<WalkResult> result = CompletableFuture.supplyAsync(line, workers);
+        if (ordered) {
+            pending.add(result);
+        } else {
+            result.whenComplete((value, exception) -> pending.add(result));
+        }
+        return true;
+    }
+
+    @Override
+    public boolean finish() {
+        boolean interrupted = false;
+        workers.shutdown();
+        //In unordered mode, lines are queued by the workers, so all of them should finish before the end is queued
+        while (!workers.isTerminated()) {
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        pending.add(END);
+        //Finishing waits for the output anyway, so interrupts are postponed till the end
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return !failed;
+    }
+}
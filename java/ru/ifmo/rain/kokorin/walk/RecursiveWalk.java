@@ -1,24 +1,33 @@
 package ru.ifmo.rain.kokorin.walk;
 
+import javax.management.JMException;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class RecursiveWalk {
-    private static void processFiles(BufferedReader reader, BufferedWriter writer) {
-        FileVisitor visitor = new FileVisitor(writer);
+    private static void processFiles(BufferedReader reader, ResultWriter writer, FileVisitor visitor) {
         try {
             String line;
             while ((line = reader.readLine()) != null) {
                 try {
                     Files.walkFileTree(Paths.get(line), visitor);
                 } catch (InvalidPathException | IOException e) {
-                    writer.write("00000000 " + line);
-                    writer.newLine();
+                    String root = line;
+                    if (!writer.write(() -> visitor.error(root))) {
+                        throw new IOException("output is not written");
+                    }
                 }
             }
         } catch (IOException e) {
@@ -26,19 +35,84 @@ public class RecursiveWalk {
         }
     }
 
+    private static ResultWriter createResultWriter(FileChannel channel, FileChannel manifest, WalkOptions options,
+                                                   WalkMetrics metrics) {
+        ResultEncoder encoder = new ResultEncoder(channel, options.algorithm.create().length(), manifest);
+        if (options.threads == 1) {
+            return new SequentialResultWriter(encoder, metrics);
+        }
+        return new ParallelResultWriter(encoder, options.threads, options.ordered, metrics);
+    }
+
+    //Prints progress of the walk to stderr every second from a daemon thread, so the walk is never kept alive by it
+    private static ScheduledExecutorService startProgress(WalkMetrics metrics) {
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "walk-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        progress.scheduleAtFixedRate(() -> System.err.println(metrics.progress()), 1, 1, TimeUnit.SECONDS);
+        return progress;
+    }
+
+    private static void findDuplicates(Path input, Path output, WalkOptions options, WalkMetrics metrics) {
+        DuplicateFinder finder = new DuplicateFinder(options.algorithm, metrics);
+        try (BufferedReader reader = Files.newBufferedReader(input)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    finder.add(Paths.get(line));
+                } catch (InvalidPathException | IOException e) {
+                    finder.error();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("ERROR - couldn't open input file");
+            return;
+        }
+        ForkJoinPool pool = options.threads == 1 ? null : new ForkJoinPool(options.threads);
+        try (BufferedWriter writer = Files.newBufferedWriter(output)) {
+            finder.write(writer, pool);
+        } catch (IOException e) {
+            System.out.println("ERROR - Couldn't write output file " + e.getMessage());
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static void stopProgress(ScheduledExecutorService progress, WalkMetrics metrics) {
+        if (progress != null) {
+            progress.shutdownNow();
+            System.err.print(metrics.summary());
+            metrics.unregister();
+        }
+    }
+
+    private static FileChannel openOutput(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
     public static void main(String[] args) {
-        if (args == null || args.length != 2 || args[0] == null || args[1] == null) {
-            System.out.println("ERROR - 2 non-null arguments required");
+        WalkOptions options;
+        try {
+            options = WalkOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println("ERROR - " + e.getMessage());
             return;
         }
-        String inputFileName = args[0];
-        String outputFileName = args[1];
+        String inputFileName = options.inputFile;
+        String outputFileName = options.outputFile;
         Path pathToInputFile;
         Path pathToOutputFile;
+        Path pathToManifest;
 
         try {
             pathToInputFile = Paths.get(inputFileName);
             pathToOutputFile = Paths.get(outputFileName);
+            pathToManifest = options.chunkManifest == null ? null : Paths.get(options.chunkManifest);
         } catch (InvalidPathException e) {
             System.out.println("ERROR - Incorrect path to file: " + e.getMessage());
             return;
@@ -53,15 +127,76 @@ public class RecursiveWalk {
             return;
         }
 
+        HashCache cache = null;
+        if (options.cacheFile != null) {
+            try {
+                String scheme = options.algorithm.name() + (options.treeHash ? "-TREE" : "");
+                cache = HashCache.open(Paths.get(options.cacheFile), scheme, options.algorithm.create().length());
+            } catch (InvalidPathException | IOException e) {
+                System.out.println("ERROR - Couldn't open cache file " + e.getMessage());
+                return;
+            }
+        }
+
+        WalkMetrics metrics = options.metrics ? new WalkMetrics() : WalkMetrics.DISABLED;
+        ScheduledExecutorService progress = null;
+        if (options.metrics) {
+            try {
+                metrics.register();
+            } catch (JMException e) {
+                System.err.println("Couldn't register metrics in JMX " + e.getMessage());
+            }
+            progress = startProgress(metrics);
+        }
+
+        if (options.duplicates) {
+            findDuplicates(pathToInputFile, pathToOutputFile, options, metrics);
+            stopProgress(progress, metrics);
+            return;
+        }
+
+        //Large files are split into chunks or segments by several threads even without -j
+        ForkJoinPool largeFilePool = options.chunks || options.treeHash
+                ? new ForkJoinPool(Math.max(options.threads, 2)) : null;
+
         try (BufferedReader reader = Files.newBufferedReader(pathToInputFile)) {
-            try (BufferedWriter writer = Files.newBufferedWriter(pathToOutputFile)) {
-                processFiles(reader, writer);
+            try (FileChannel channel = openOutput(pathToOutputFile);
+                 FileChannel manifest = pathToManifest == null ? null : openOutput(pathToManifest)) {
+                ResultWriter resultWriter = createResultWriter(channel, manifest, options, metrics);
+                HashAlgorithm algorithm = options.algorithm;
+                Supplier<ArchiveHasher> archives = options.archives
+                        ? () -> new ArchiveHasher(algorithm, metrics) : null;
+                FileVisitor visitor;
+                if (options.chunks) {
+                    visitor = new FileVisitor(resultWriter, algorithm, largeFilePool, metrics);
+                } else if (options.treeHash) {
+                    visitor = new FileVisitor(resultWriter,
+                            () -> new TreeHasher(algorithm, largeFilePool, metrics), cache, metrics, null);
+                } else {
+                    visitor = new FileVisitor(resultWriter,
+                            () -> new FileHasher(algorithm.create(), metrics), cache, metrics, archives);
+                }
+                processFiles(reader, resultWriter, visitor);
+                if (!resultWriter.finish()) {
+                    System.out.println("ERROR - Couldn't write output file");
+                }
             } catch (IOException e) {
                 System.out.println("ERROR - Couldn't process output file " + e.getMessage());
             }
         } catch (IOException e) {
             System.out.println("ERROR - couldn't open input file");
         }
+        if (largeFilePool != null) {
+            largeFilePool.shutdown();
+        }
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                System.out.println("ERROR - Couldn't write cache file " + e.getMessage());
+            }
+        }
+        stopProgress(progress, metrics);
         //System.out.println("Processing completed!");
     }
 }
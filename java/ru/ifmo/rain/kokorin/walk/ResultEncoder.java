@@ -0,0 +1,135 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/*
+Formats results into one buffer, which is written to the channel, when it is full.
+Hashes are formatted as hex digits right in the buffer, paths are encoded to UTF-8 there.
+Chunks of a file are written after the line of the file, either to the same channel or to the manifest,
+one line per chunk: <hash>:<offset>:<length> <path>
+Not thread-safe.
+ */
+class ResultEncoder {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final WritableByteChannel channel;
+    private final int hashLength;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    //Same as the encoder of Files.newBufferedWriter, which was used before: malformed paths are errors
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    //Receives lines of chunks, this encoder, if they are written inline
+    private final ResultEncoder manifest;
+    //Position of the beginning of the current line in the buffer, a line with a malformed path is dropped from there
+    private int lineStart;
+
+    ResultEncoder(WritableByteChannel channel, int hashLength, WritableByteChannel manifestChannel) {
+        this.channel = channel;
+        this.hashLength = hashLength;
+        manifest = manifestChannel == null ? this : new ResultEncoder(manifestChannel, hashLength, null);
+    }
+
+    ResultEncoder(WritableByteChannel channel, int hashLength) {
+        this(channel, hashLength, null);
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    void write(WalkResult result) throws IOException {
+        ensureRemaining(2 * hashLength + 1);
+        lineStart = buffer.position();
+        writeHash(result.hash);
+        buffer.put((byte) ' ');
+        writePath(result.path);
+        if (result.chunks != null) {
+            for (ChunkHasher.Chunk chunk : result.chunks) {
+                manifest.writeChunk(chunk, result.path);
+            }
+        }
+        if (result.entries != null) {
+            for (WalkResult entry : result.entries) {
+                write(entry);
+            }
+        }
+    }
+
+    private void writeHash(byte[] hash) {
+        for (int i = 0; i < hashLength; i++) {
+            int value = hash == null ? 0 : hash[i];
+            buffer.put(HEX_DIGITS[(value >> 4) & 0xf]);
+            buffer.put(HEX_DIGITS[value & 0xf]);
+        }
+    }
+
+    private void writeNumber(long value) {
+        //Digits are written from the end, 19 digits are enough for any non-negative long
+        int end = buffer.position() + 19;
+        int position = end;
+        do {
+            buffer.put(--position, HEX_DIGITS[(int) (value % 10)]);
+            value /= 10;
+        } while (value != 0);
+        int digits = end - position;
+        for (int i = 0; i < digits; i++) {
+            buffer.put(buffer.get(position + i));
+        }
+    }
+
+    private void writeChunk(ChunkHasher.Chunk chunk, String path) throws IOException {
+        ensureRemaining(2 * hashLength + 2 * 19 + 3);
+        lineStart = buffer.position();
+        writeHash(chunk.hash);
+        buffer.put((byte) ':');
+        writeNumber(chunk.offset);
+        buffer.put((byte) ':');
+        writeNumber(chunk.length);
+        buffer.put((byte) ' ');
+        writePath(path);
+    }
+
+    //Writes path and the line separator
+    private void writePath(String value) throws IOException {
+        CharBuffer path = CharBuffer.wrap(value);
+        encoder.reset();
+        while (true) {
+            CoderResult coderResult = encoder.encode(path, buffer, true);
+            if (coderResult.isOverflow()) {
+                flush();
+            } else if (coderResult.isError()) {
+                //Previous lines stay in the buffer and are written by the next flush()
+                buffer.position(lineStart);
+                throw new CharacterCodingException();
+            } else {
+                break;
+            }
+        }
+
+        ensureRemaining(LINE_SEPARATOR.length);
+        buffer.put(LINE_SEPARATOR);
+    }
+
+    void flush() throws IOException {
+        if (manifest != this) {
+            manifest.flush();
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        //Beginning of a long line may be written already
+        lineStart = 0;
+    }
+}
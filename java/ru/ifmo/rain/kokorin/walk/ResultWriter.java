@@ -0,0 +1,15 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.util.function.Supplier;
+
+//Receives lines of the output in the order of traversal
+interface ResultWriter {
+    /*
+    Line may be computed later and in another thread, returns false, if the output cannot be written anymore.
+    line should give an error line for a file, which cannot be hashed, if it throws, the output is failed
+     */
+    boolean write(Supplier<WalkResult> line);
+
+    //Waits for all lines to be written, returns false, if some of them were not written
+    boolean finish();
+}
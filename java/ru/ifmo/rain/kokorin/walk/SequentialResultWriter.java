@@ -0,0 +1,44 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+class SequentialResultWriter implements ResultWriter {
+    private final ResultEncoder encoder;
+    private final WalkMetrics metrics;
+    private boolean failed;
+
+    SequentialResultWriter(ResultEncoder encoder, WalkMetrics metrics) {
+        this.encoder = encoder;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean write(Supplier<WalkResult> line) {
+        if (failed) {
+            return false;
+        }
+        try {
+            WalkResult result = line.get();
+            long start = metrics.now();
+            encoder.write(result);
+            metrics.write.record(metrics.now() - start);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            //Same as ParallelResultWriter, which gets the exception of the line from its future
+            failed = true;
+            return false;
+        }
+    }
+
+    @Override
+    //Lines, encoded before a failure, are written anyway
+    public boolean finish() {
+        try {
+            encoder.flush();
+        } catch (IOException e) {
+            failed = true;
+        }
+        return !failed;
+    }
+}
@@ -0,0 +1,46 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+class Sha256Hash implements Hash {
+    private static final int LENGTH = 32;
+
+    private final MessageDigest digest;
+
+    Sha256Hash() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //Every Java platform is required to support SHA-256
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public void reset() {
+        digest.reset();
+    }
+
+    @Override
+    public void update(ByteBuffer data) {
+        digest.update(data);
+    }
+
+    @Override
+    public int length() {
+        return LENGTH;
+    }
+
+    @Override
+    public void digest(byte[] out) {
+        try {
+            //Also resets the digest
+            digest.digest(out, 0, LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException("Output buffer is too short", e);
+        }
+    }
+}
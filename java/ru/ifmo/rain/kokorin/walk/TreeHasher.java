@@ -0,0 +1,102 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*
+Tree hash: file is split into segments of SEGMENT bytes, hash of the file is
+H(H(segment 0) || H(segment 1) || ...), where H is the chosen hash algorithm.
+Hashes of segments do not depend on each other, so segments of a large file are hashed by the threads of the pool
+from positional reads. File of at most one segment is hashed by the calling thread, its hash is H(H(file)).
+Not thread-safe, every thread should have its own TreeHasher.
+ */
+class TreeHasher extends FileHasher {
+    private static final int SEGMENT = 1 << 22;
+    private static final int READ_SIZE = 1 << 18;
+
+    private final HashAlgorithm algorithm;
+    private final ForkJoinPool pool;
+    private final Hash root;
+    private final byte[] digest;
+
+    TreeHasher(HashAlgorithm algorithm, ForkJoinPool pool, WalkMetrics metrics) {
+        super(algorithm.create(), metrics);
+        this.algorithm = algorithm;
+        this.pool = pool;
+        root = algorithm.create();
+        digest = new byte[root.length()];
+    }
+
+    @Override
+    void hash(Path file) throws IOException {
+        root.reset();
+        try (FileChannel channel = open(file)) {
+            long size = channel.size();
+            if (size <= SEGMENT) {
+                super.hash(channel);
+                root.update(ByteBuffer.wrap(super.digest()));
+            } else {
+                for (byte[] leaf : leaves(channel, size)) {
+                    root.update(ByteBuffer.wrap(leaf));
+                }
+            }
+        }
+        root.digest(digest);
+    }
+
+    @Override
+    byte[] digest() {
+        return digest;
+    }
+
+    private byte[][] leaves(FileChannel channel, long size) throws IOException {
+        int segments = (int) ((size + SEGMENT - 1) / SEGMENT);
+        try {
+            //Parallel stream, started from the pool, runs in the threads of the pool
+            return pool.submit(() -> IntStream.range(0, segments).parallel()
+                    .mapToObj(segment -> leaf(channel, (long) segment * SEGMENT,
+                            Math.min(size, (long) (segment + 1) * SEGMENT)))
+                    .toArray(byte[][]::new)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private byte[] leaf(FileChannel channel, long from, long to) {
+        Hash hash = algorithm.create();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+        try {
+            for (long position = from; position < to; ) {
+                buffer.clear().limit((int) Math.min(READ_SIZE, to - position));
+                long start = metrics.now();
+                int read = channel.read(buffer, position);
+                long end = metrics.now();
+                metrics.read.record(end - start);
+                if (read < 0) {
+                    throw new IOException("File was truncated while hashing");
+                }
+                buffer.flip();
+                hash.update(buffer);
+                metrics.hash.record(metrics.now() - end);
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] result = new byte[hash.length()];
+        hash.digest(result);
+        return result;
+    }
+}
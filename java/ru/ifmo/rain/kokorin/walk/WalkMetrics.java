@@ -0,0 +1,263 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Counters and latencies of a walk, updated by all threads.
+open, read and hash latencies are measured per call by FileHasher and TreeHasher, pages of mapped files are read
+inside of hash calls, so they are counted as hash time. file latency is the whole time of getting the line of a file,
+directory latency is the time between entering and leaving a directory by the traversal,
+with -j it is the time of listing and queueing its files, not of hashing them.
+Without --metrics DISABLED is used: it records nothing and its clock is not read, so the walk does not pay for it.
+ */
+class WalkMetrics implements WalkMetricsMXBean {
+    private static final int SLOWEST_FILES = 10;
+    private static final int MAX_FAILED_PATHS = 100;
+    private static final String OBJECT_NAME = "ru.ifmo.rain.kokorin.walk:type=WalkMetrics";
+
+    private static class SlowFile {
+        final String path;
+        final long nanos;
+
+        SlowFile(String path, long nanos) {
+            this.path = path;
+            this.nanos = nanos;
+        }
+    }
+
+    static final WalkMetrics DISABLED = new WalkMetrics(LatencyHistogram.DISABLED) {
+        @Override
+        long now() {
+            return 0;
+        }
+
+        @Override
+        void file(Path path, long size, long nanos) {
+        }
+
+        @Override
+        void cachedFile() {
+        }
+
+        @Override
+        void error() {
+        }
+
+        @Override
+        void failed(Path path, IOException e) {
+        }
+    };
+
+    final LatencyHistogram open;
+    final LatencyHistogram read;
+    final LatencyHistogram hash;
+    final LatencyHistogram write;
+    final LatencyHistogram directory;
+    private final LatencyHistogram file;
+
+    private final long start = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder cachedFiles = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    //Fastest of the slowest files on top, guarded by itself
+    private final PriorityQueue<SlowFile> slowest = new PriorityQueue<>(
+            (a, b) -> Long.compare(a.nanos, b.nanos));
+    //Time of the fastest of the slowest files, once there are SLOWEST_FILES of them, so faster files skip the lock
+    private volatile long slowThreshold;
+    private final Queue<String> failedPaths = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private ObjectName registeredName;
+
+    private WalkMetrics(LatencyHistogram disabled) {
+        open = read = hash = write = directory = file = disabled;
+    }
+
+    WalkMetrics() {
+        open = new LatencyHistogram();
+        read = new LatencyHistogram();
+        hash = new LatencyHistogram();
+        write = new LatencyHistogram();
+        directory = new LatencyHistogram();
+        file = new LatencyHistogram();
+    }
+
+    //Clock of latencies
+    long now() {
+        return System.nanoTime();
+    }
+
+    void file(Path path, long size, long nanos) {
+        files.increment();
+        bytes.add(size);
+        file.record(nanos);
+        if (nanos <= slowThreshold) {
+            return;
+        }
+        synchronized (slowest) {
+            slowest.add(new SlowFile(path.toString(), nanos));
+            if (slowest.size() > SLOWEST_FILES) {
+                slowest.poll();
+            }
+            if (slowest.size() == SLOWEST_FILES) {
+                slowThreshold = slowest.peek().nanos;
+            }
+        }
+    }
+
+    void cachedFile() {
+        cachedFiles.increment();
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    //Paths, which could not be visited at all, usually directories without access
+    void failed(Path path, IOException e) {
+        if (failures.getAndIncrement() < MAX_FAILED_PATHS) {
+            failedPaths.add(path + ": " + e.getClass().getSimpleName()
+                    + (e.getMessage() == null || e.getMessage().equals(path.toString()) ? "" : " " + e.getMessage()));
+        }
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getCachedFiles() {
+        return cachedFiles.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private double perSecond(long value) {
+        long elapsed = System.nanoTime() - start;
+        return elapsed == 0 ? 0 : value * 1e9 / elapsed;
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return perSecond(getFiles() + getCachedFiles());
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return perSecond(getBytes());
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getOpenLatency() {
+        return open.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getReadLatency() {
+        return read.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getHashLatency() {
+        return hash.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getWriteLatency() {
+        return write.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getFileLatency() {
+        return file.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getDirectoryLatency() {
+        return directory.snapshot();
+    }
+
+    String progress() {
+        return String.format("%.1fs: %d files (%d cached, %.0f/s), %.1f MB (%.1f MB/s), %d errors",
+                getElapsedMillis() / 1000.0, getFiles() + getCachedFiles(), getCachedFiles(), getFilesPerSecond(),
+                getBytes() / 1e6, getBytesPerSecond() / 1e6, getErrors());
+    }
+
+    String summary() {
+        StringBuilder result = new StringBuilder(progress()).append(System.lineSeparator());
+        result.append("open: ").append(getOpenLatency()).append(System.lineSeparator());
+        result.append("read: ").append(getReadLatency()).append(System.lineSeparator());
+        result.append("hash: ").append(getHashLatency()).append(System.lineSeparator());
+        result.append("write: ").append(getWriteLatency()).append(System.lineSeparator());
+        result.append("file: ").append(getFileLatency()).append(System.lineSeparator());
+        result.append("directory: ").append(getDirectoryLatency()).append(System.lineSeparator());
+        List<SlowFile> slow;
+        synchronized (slowest) {
+            slow = new ArrayList<>(slowest);
+        }
+        slow.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+        result.append("slowest files:").append(System.lineSeparator());
+        for (SlowFile slowFile : slow) {
+            result.append(String.format("  %.3f ms %s", slowFile.nanos / 1e6, slowFile.path))
+                    .append(System.lineSeparator());
+        }
+        int failed = failures.get();
+        result.append("failed to visit: ").append(failed).append(System.lineSeparator());
+        for (String path : failedPaths) {
+            result.append("  ").append(path).append(System.lineSeparator());
+        }
+        if (failed > MAX_FAILED_PATHS) {
+            result.append("  ... and ").append(failed - MAX_FAILED_PATHS).append(" more")
+                    .append(System.lineSeparator());
+        }
+        return result.toString();
+    }
+
+    void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        //Name is left by a previous walk of the same JVM, if it was not unregistered
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+        registeredName = name;
+    }
+
+    void unregister() {
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException ignored) {
+            }
+            registeredName = null;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ru.ifmo.rain.kokorin.walk;
+
+//Management interface of WalkMetrics, JMX requires it to be public
+public interface WalkMetricsMXBean {
+    long getFiles();
+
+    long getCachedFiles();
+
+    long getBytes();
+
+    long getErrors();
+
+    long getElapsedMillis();
+
+    double getFilesPerSecond();
+
+    double getBytesPerSecond();
+
+    LatencyHistogram.Snapshot getOpenLatency();
+
+    LatencyHistogram.Snapshot getReadLatency();
+
+    LatencyHistogram.Snapshot getHashLatency();
+
+    LatencyHistogram.Snapshot getWriteLatency();
+
+    LatencyHistogram.Snapshot getFileLatency();
+
+    LatencyHistogram.Snapshot getDirectoryLatency();
+}
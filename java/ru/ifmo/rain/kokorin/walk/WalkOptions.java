@@ -0,0 +1,115 @@
+package ru.ifmo.rain.kokorin.walk;
+
+/*
+Command line: [options] <input file> <output file>
+Options:
+-j <threads>   hash files in the given number of threads, output order is kept
+--unordered    with -j, write every line as soon as it is ready, lines of different files may be reordered
+--hash <name>  hash function: fnv1a32 (default), xxhash64, crc32c or sha256
+--cache <file> take hashes of unchanged files from the cache file and store new hashes there
+--chunks       after the line of every file, write lines of its content-defined chunks:
+               <hash>:<offset>:<length> <path>
+--chunk-manifest <file>
+               the same as --chunks, but lines of chunks are written to the given file
+--tree-hash    hash files as trees of 4 MB segments, segments of a large file are hashed in parallel,
+               hashes differ from the default ones
+--archives     after the line of a zip, jar, tar, tar.gz or tgz file, write lines of files inside of it,
+               with paths <archive>!/<entry>, with -j several archives are read in parallel
+--duplicates   instead of hashes of all files, write groups of files with the same content,
+               -j is the number of threads, that compare and hash files
+--metrics      print a progress line to stderr every second and a summary at the end,
+               metrics are also available through JMX while the walk runs
+Chunks cannot be taken from the cache, so --cache cannot be used together with chunks.
+ */
+class WalkOptions {
+    int threads = 1;
+    boolean ordered = true;
+    HashAlgorithm algorithm = HashAlgorithm.FNV1A32;
+    String cacheFile;
+    boolean chunks;
+    String chunkManifest;
+    boolean treeHash;
+    boolean metrics;
+    boolean duplicates;
+    boolean archives;
+    String inputFile;
+    String outputFile;
+
+    //throws IllegalArgumentException with the description of the problem for incorrect arguments
+    static WalkOptions parse(String[] args) {
+        if (args == null) {
+            throw new IllegalArgumentException("2 non-null arguments required");
+        }
+        WalkOptions options = new WalkOptions();
+        int i = 0;
+        while (i < args.length && args[i] != null && args[i].startsWith("-") && args.length - i > 2) {
+            String option = args[i++];
+            switch (option) {
+                case "-j":
+                    options.threads = parseThreads(args[i++]);
+                    break;
+                case "--hash":
+                    options.algorithm = HashAlgorithm.forName(args[i++]);
+                    break;
+                case "--cache":
+                    options.cacheFile = args[i++];
+                    break;
+                case "--chunks":
+                    options.chunks = true;
+                    break;
+                case "--chunk-manifest":
+                    options.chunks = true;
+                    options.chunkManifest = args[i++];
+                    break;
+                case "--tree-hash":
+                    options.treeHash = true;
+                    break;
+                case "--archives":
+                    options.archives = true;
+                    break;
+                case "--duplicates":
+                    options.duplicates = true;
+                    break;
+                case "--metrics":
+                    options.metrics = true;
+                    break;
+                case "--unordered":
+                    options.ordered = false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (args.length - i != 2 || args[i] == null || args[i + 1] == null) {
+            throw new IllegalArgumentException("2 non-null arguments required");
+        }
+        if (options.chunks && options.cacheFile != null) {
+            throw new IllegalArgumentException("--cache cannot be used together with chunks");
+        }
+        if (options.chunks && options.treeHash) {
+            throw new IllegalArgumentException("--tree-hash cannot be used together with chunks");
+        }
+        if (options.archives && (options.chunks || options.treeHash || options.duplicates)) {
+            throw new IllegalArgumentException(
+                    "--archives cannot be used together with chunks, --tree-hash or --duplicates");
+        }
+        if (options.duplicates && (options.chunks || options.treeHash || options.cacheFile != null)) {
+            throw new IllegalArgumentException(
+                    "--duplicates cannot be used together with chunks, --tree-hash or --cache");
+        }
+        options.inputFile = args[i];
+        options.outputFile = args[i + 1];
+        return options;
+    }
+
+    private static int parseThreads(String value) {
+        try {
+            int threads = Integer.parseInt(value);
+            if (threads > 0) {
+                return threads;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Number of threads should be a positive integer: " + value);
+    }
+}
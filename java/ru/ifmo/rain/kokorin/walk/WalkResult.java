@@ -0,0 +1,29 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.util.List;
+
+//One line of the output
+class WalkResult {
+    //null, if the file cannot be read
+    final byte[] hash;
+    final String path;
+    //Content-defined chunks of the file, null, if they are not computed
+    final List<ChunkHasher.Chunk> chunks;
+    //Lines of files inside of the archive, written after this line, null, if the file is not an archive
+    final List<WalkResult> entries;
+
+    WalkResult(byte[] hash, String path, List<ChunkHasher.Chunk> chunks, List<WalkResult> entries) {
+        this.hash = hash;
+        this.path = path;
+        this.chunks = chunks;
+        this.entries = entries;
+    }
+
+    WalkResult(byte[] hash, String path, List<ChunkHasher.Chunk> chunks) {
+        this(hash, path, chunks, null);
+    }
+
+    WalkResult(byte[] hash, String path) {
+        this(hash, path, null);
+    }
+}
@@ -0,0 +1,136 @@
+package ru.ifmo.rain.kokorin.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+//Streaming XXH64 with seed 0, four independent lanes of 8 bytes are processed per 32-byte stripe
+class XxHash64 implements Hash {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long total;
+    //Bytes, which do not form a whole stripe yet
+    private final ByteBuffer tail = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+
+    XxHash64() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        total = 0;
+        tail.clear();
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        return (acc ^ round(0, value)) * PRIME1 + PRIME4;
+    }
+
+    //Processes whole stripes of data[from, to), returns the end of the last processed stripe
+    private int stripes(ByteBuffer data, int from, int to) {
+        //Lanes are little-endian, byte order of a buffer is just a flag, so it is switched instead of reversing bytes
+        ByteOrder order = data.order();
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        long v1 = this.v1;
+        long v2 = this.v2;
+        long v3 = this.v3;
+        long v4 = this.v4;
+        int i = from;
+        for (; i + STRIPE <= to; i += STRIPE) {
+            v1 = round(v1, data.getLong(i));
+            v2 = round(v2, data.getLong(i + 8));
+            v3 = round(v3, data.getLong(i + 16));
+            v4 = round(v4, data.getLong(i + 24));
+        }
+        data.order(order);
+        this.v1 = v1;
+        this.v2 = v2;
+        this.v3 = v3;
+        this.v4 = v4;
+        return i;
+    }
+
+    @Override
+    public void update(ByteBuffer data) {
+        int i = data.position();
+        int end = data.limit();
+        total += end - i;
+        if (tail.position() > 0) {
+            while (tail.hasRemaining() && i < end) {
+                tail.put(data.get(i++));
+            }
+            if (tail.hasRemaining()) {
+                data.position(end);
+                return;
+            }
+            stripes(tail, 0, STRIPE);
+            tail.clear();
+        }
+        i = stripes(data, i, end);
+        while (i < end) {
+            tail.put(data.get(i++));
+        }
+        data.position(end);
+    }
+
+    @Override
+    public int length() {
+        return Long.BYTES;
+    }
+
+    @Override
+    public void digest(byte[] out) {
+        long h;
+        if (total >= STRIPE) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = PRIME5;
+        }
+        h += total;
+
+        int length = tail.position();
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            h ^= round(0, tail.getLong(i));
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+        }
+        if (i + Integer.BYTES <= length) {
+            h ^= (tail.getInt(i) & 0xFFFFFFFFL) * PRIME1;
+            h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+            i += Integer.BYTES;
+        }
+        for (; i < length; i++) {
+            h ^= (tail.get(i) & 0xFFL) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        for (int j = 0; j < Long.BYTES; j++) {
+            out[j] = (byte) (h >>> (56 - 8 * j));
+        }
+    }
+}